@@ -0,0 +1,118 @@
+package org.tamal.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorResult;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the steps of {@link CertificateValidator#validate}: parsing a PEM chain, building the {@link CertPath} and
+ * running the PKIX algorithm, for chains of 2 to 5 certificates, with and without CRL revocation checking. Run with
+ * the {@code jmh} profile, which adds the GC profiler for the allocation rate:
+ * <pre>
+ * mvn -P jmh test-compile exec:exec -Djmh.args=CertificateBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CertificateBenchmark {
+
+    private static final KeyPairPool KEYS = new KeyPairPool("RSA", 2048, 5);
+
+    @Param({ "2", "3", "4", "5" })
+    private int depth;
+
+    @Param({ "false", "true" })
+    private boolean revocation;
+
+    private byte[] pem;
+    private List<X509Certificate> chain;
+    private CertPath certPath;
+    private PKIXParameters parameters;
+    private CertificateFactory factory;
+    private CertPathValidator validator;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        CertificateGenerator generator = new CertificateGenerator(KEYS);
+        List<X509Certificate> certificates = generator.chain("localhost", depth);
+        StringBuilder bundle = new StringBuilder();
+        for (X509Certificate certificate : certificates) {
+            bundle.append(CertificateGenerator.toPem(certificate));
+        }
+        pem = bundle.toString().getBytes(StandardCharsets.US_ASCII);
+        chain = certificates.subList(0, depth - 1);
+        X509Certificate root = certificates.get(depth - 1);
+        factory = CertificateFactory.getInstance("X.509");
+        validator = CertPathValidator.getInstance("PKIX");
+        certPath = factory.generateCertPath(chain);
+        parameters = new PKIXParameters(Collections.singleton(new TrustAnchor(root, null)));
+        parameters.setRevocationEnabled(revocation);
+        if (revocation) {
+            List<X509CRL> crls = new ArrayList<>();
+            for (int i = 1; i < depth; i++) {
+                crls.add(new CrlBuilder(certificates.get(i), generator.getKey("chain" + depth + "-" + i)).build());
+            }
+            parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls)));
+        }
+    }
+
+    @Benchmark
+    public Collection<? extends Certificate> parse() throws GeneralSecurityException {
+        return factory.generateCertificates(new ByteArrayInputStream(pem));
+    }
+
+    @Benchmark
+    public CertPath generateCertPath() throws GeneralSecurityException {
+        return factory.generateCertPath(chain);
+    }
+
+    @Benchmark
+    public CertPathValidatorResult validate() throws GeneralSecurityException {
+        return validator.validate(certPath, parameters);
+    }
+
+    /**
+     * The whole of {@link CertificateValidator#validate} without its caches: parse, build the path and validate.
+     */
+    @Benchmark
+    public CertPathValidatorResult parseAndValidate() throws GeneralSecurityException {
+        List<X509Certificate> certificates = new ArrayList<>(depth);
+        for (Certificate certificate : factory.generateCertificates(new ByteArrayInputStream(pem))) {
+            certificates.add((X509Certificate) certificate);
+        }
+        return validator.validate(factory.generateCertPath(certificates.subList(0, depth - 1)), parameters);
+    }
+
+}
@@ -0,0 +1,251 @@
+package org.tamal.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Measures the throughput and the latency distribution of the locking primitives of {@link ThreadTest}, plus
+ * {@link StampedLock}, {@link ReentrantReadWriteLock} and CAS loops, each guarding a shared counter. {@link #main}
+ * runs every benchmark from 1 to 2 x cores threads, with the GC profiler for the allocation rate:
+ * <pre>
+ * mvn -P jmh test-compile exec:exec -Djmh.main=org.tamal.java.LockBenchmark -Djmh.args=LockBenchmark
+ * </pre>
+ * The wait/notify and the {@link Handoff} benchmarks run pairs of threads, which hand the counter over to each other
+ * like {@link ThreadTest#testWaitNotify()}, so their throughput is the number of handoffs. Every pair has its own
+ * state, so that more threads mean more independent pairs rather than more threads competing for one turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+
+	private final Object monitor = new Object();
+	private final ReentrantLock reentrantLock = new ReentrantLock();
+	private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+	private final StampedLock stampedLock = new StampedLock();
+	private final AtomicLong atomic = new AtomicLong();
+	private long x;
+
+	/**
+	 * The monitor and the turn of one pair of wait/notify threads.
+	 */
+	@State(Scope.Group)
+	public static class WaitNotifyPair {
+
+		private final Object monitor = new Object();
+		private int turn;
+	}
+
+	/**
+	 * The {@link Handoff} of one pair of threads, since each of its parties must be a single thread.
+	 */
+	@State(Scope.Group)
+	public static class HandoffPair {
+
+		private final Handoff handoff = new Handoff(0);
+	}
+
+	@Benchmark
+	public long synchronizedBlock() {
+		synchronized (monitor) {
+			return ++x;
+		}
+	}
+
+	@Benchmark
+	public long reentrantLock() {
+		reentrantLock.lock();
+		try {
+			return ++x;
+		} finally {
+			reentrantLock.unlock();
+		}
+	}
+
+	/**
+	 * Spins on {@link ReentrantLock#tryLock()} like {@code Person.addFriendReentrant}, without the sleep.
+	 */
+	@Benchmark
+	public long reentrantTryLock() {
+		while (!reentrantLock.tryLock()) {
+			Thread.yield();
+		}
+		try {
+			return ++x;
+		} finally {
+			reentrantLock.unlock();
+		}
+	}
+
+	@Benchmark
+	public long readLock() {
+		ReentrantReadWriteLock.ReadLock lock = readWriteLock.readLock();
+		lock.lock();
+		try {
+			return x;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Benchmark
+	public long writeLock() {
+		ReentrantReadWriteLock.WriteLock lock = readWriteLock.writeLock();
+		lock.lock();
+		try {
+			return ++x;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Benchmark
+	public long stampedWrite() {
+		long stamp = stampedLock.writeLock();
+		try {
+			return ++x;
+		} finally {
+			stampedLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Reads optimistically, and falls back to the read lock only if a writer intervened.
+	 */
+	@Benchmark
+	public long stampedOptimisticRead() {
+		long stamp = stampedLock.tryOptimisticRead();
+		long value = x;
+		if (!stampedLock.validate(stamp)) {
+			stamp = stampedLock.readLock();
+			try {
+				value = x;
+			} finally {
+				stampedLock.unlockRead(stamp);
+			}
+		}
+		return value;
+	}
+
+	@Benchmark
+	public long casLoop() {
+		long value;
+		do {
+			value = atomic.get();
+		} while (!atomic.compareAndSet(value, value + 1));
+		return value + 1;
+	}
+
+	@Benchmark
+	public long getAndIncrement() {
+		return atomic.getAndIncrement();
+	}
+
+	@Benchmark
+	@Group("waitNotify")
+	@GroupThreads(1)
+	public void increment(WaitNotifyPair pair, Control control) throws InterruptedException {
+		handOver(pair, control, 0);
+	}
+
+	@Benchmark
+	@Group("waitNotify")
+	@GroupThreads(1)
+	public void decrement(WaitNotifyPair pair, Control control) throws InterruptedException {
+		handOver(pair, control, 1);
+	}
+
+	/**
+	 * Waits for the turn of the thread, flips the counter between 0 and 1 and wakes up the other thread. The wait
+	 * times out only to notice the end of the iteration, when the other thread has stopped.
+	 */
+	private void handOver(WaitNotifyPair pair, Control control, int turn) throws InterruptedException {
+		synchronized (pair.monitor) {
+			while (pair.turn != turn) {
+				if (control.stopMeasurement) {
+					return;
+				}
+				pair.monitor.wait(1);
+			}
+			pair.turn = 1 - turn;
+			pair.monitor.notify();
+		}
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public void incrementHandoff(HandoffPair pair, Control control) throws InterruptedException {
+		handOver(pair, control, 0);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public void decrementHandoff(HandoffPair pair, Control control) throws InterruptedException {
+		handOver(pair, control, 1);
+	}
+
+	/**
+	 * Same as {@link #handOver(WaitNotifyPair, Control, int)} with a {@link Handoff} instead of the monitor.
+	 */
+	private void handOver(HandoffPair pair, Control control, int turn) throws InterruptedException {
+		while (!pair.handoff.await(turn, 1, TimeUnit.MILLISECONDS)) {
+			if (control.stopMeasurement) {
+				return;
+			}
+		}
+		pair.handoff.pass(1 - turn);
+	}
+
+	/**
+	 * Runs the benchmarks of this class with 1, 2, 4... up to 2 x cores threads.
+	 * @param args JMH command line options, e.g. a benchmark regex or {@code -prof gc}
+	 * @throws RunnerException if a benchmark fails
+	 * @throws CommandLineOptionException if the options are invalid
+	 */
+	public static void main(String... args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		int max = 2 * Runtime.getRuntime().availableProcessors();
+		List<Integer> threads = new ArrayList<>();
+		for (int n = 1; n < max; n *= 2) {
+			threads.add(n);
+		}
+		threads.add(max);
+		for (int n : threads) {
+			OptionsBuilder builder = new OptionsBuilder();
+			builder.parent(options).threads(n);
+			if (options.getIncludes().isEmpty()) {
+				builder.include(LockBenchmark.class.getSimpleName());
+			}
+			new Runner(builder.build()).run();
+		}
+	}
+
+}
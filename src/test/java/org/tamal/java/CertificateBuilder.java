@@ -0,0 +1,195 @@
+package org.tamal.java;
+
+import javax.security.auth.x500.X500Principal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds X.509 v3 certificates signed with SHA256withRSA, in pure Java. It covers the extensions of the openssl CA
+ * and server profiles the tests used to generate: basic constraints, key usage, extended key usage, subject
+ * alternative name and the subject and authority key identifiers.
+ */
+public class CertificateBuilder {
+
+    private static final AtomicLong SERIAL = new AtomicLong(0x1000);
+    private static final String SHA256_WITH_RSA = "1.2.840.113549.1.1.11";
+
+    private final X500Principal subject;
+    private final KeyPair keyPair;
+    private BigInteger serial = BigInteger.valueOf(SERIAL.getAndIncrement());
+    private Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    private Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(30));
+    private boolean ca;
+    private int pathLength = -1;
+    private String dnsName;
+    private boolean authorityKeyIdentifier;
+    private String crlDistributionPoint;
+    private String ocspResponder;
+
+    /**
+     * @param subject the subject distinguished name, in RFC 2253 order, e.g. {@code CN=vm, O=VMware, C=IN}
+     * @param keyPair the key pair of the subject
+     */
+    public CertificateBuilder(String subject, KeyPair keyPair) {
+        this.subject = new X500Principal(subject);
+        this.keyPair = keyPair;
+    }
+
+    public CertificateBuilder serial(BigInteger serial) {
+        this.serial = serial;
+        return this;
+    }
+
+    public CertificateBuilder validity(Date notBefore, Date notAfter) {
+        this.notBefore = notBefore;
+        this.notAfter = notAfter;
+        return this;
+    }
+
+    /**
+     * Makes a CA certificate which can sign certificates and CRLs.
+     * @param pathLength the number of intermediate CAs which may follow, or -1 for no limit
+     * @return this builder
+     */
+    public CertificateBuilder ca(int pathLength) {
+        this.ca = true;
+        this.pathLength = pathLength;
+        return this;
+    }
+
+    /**
+     * Makes a TLS server certificate.
+     * @param dnsName the subject alternative name
+     * @return this builder
+     */
+    public CertificateBuilder server(String dnsName) {
+        this.ca = false;
+        this.dnsName = dnsName;
+        return this;
+    }
+
+    /**
+     * Adds the key identifier of the issuer, like {@code authorityKeyIdentifier = keyid:always}.
+     * @return this builder
+     */
+    public CertificateBuilder authorityKeyIdentifier() {
+        this.authorityKeyIdentifier = true;
+        return this;
+    }
+
+    /**
+     * Adds the URI where the issuer publishes the CRL which covers the certificate.
+     * @param uri the CRL distribution point
+     * @return this builder
+     */
+    public CertificateBuilder crlDistributionPoint(String uri) {
+        this.crlDistributionPoint = uri;
+        return this;
+    }
+
+    /**
+     * Adds the URI of the OCSP responder of the issuer, in the authority information access.
+     * @param uri the OCSP responder
+     * @return this builder
+     */
+    public CertificateBuilder ocspResponder(String uri) {
+        this.ocspResponder = uri;
+        return this;
+    }
+
+    public X509Certificate selfSign() throws GeneralSecurityException {
+        return sign(subject, keyPair.getPublic(), keyPair.getPrivate());
+    }
+
+    public X509Certificate signBy(X509Certificate issuer, PrivateKey issuerKey) throws GeneralSecurityException {
+        return sign(issuer.getSubjectX500Principal(), issuer.getPublicKey(), issuerKey);
+    }
+
+    private X509Certificate sign(X500Principal issuer, PublicKey issuerPublicKey, PrivateKey issuerKey)
+            throws GeneralSecurityException {
+        byte[] algorithm = Der.sequence(Der.oid(SHA256_WITH_RSA), Der.nul());
+        ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+        write(extensions, extension("2.5.29.14", false, Der.octetString(keyIdentifier(keyPair.getPublic()))));
+        if (authorityKeyIdentifier) {
+            byte[] keyId = Der.tlv(0x80, keyIdentifier(issuerPublicKey));
+            write(extensions, extension("2.5.29.35", false, Der.sequence(keyId)));
+        }
+        if (ca) {
+            byte[] constraints = pathLength < 0 ? Der.sequence(Der.bool(true))
+                    : Der.sequence(Der.bool(true), Der.integer(pathLength));
+            write(extensions, extension("2.5.29.19", true, constraints));
+            // digitalSignature, keyCertSign, cRLSign
+            write(extensions, extension("2.5.29.15", true, Der.namedBits(0, 5, 6)));
+        } else {
+            write(extensions, extension("2.5.29.19", true, Der.sequence()));
+            // keyEncipherment, dataEncipherment
+            write(extensions, extension("2.5.29.15", true, Der.namedBits(2, 3)));
+            // serverAuth
+            write(extensions, extension("2.5.29.37", true, Der.sequence(Der.oid("1.3.6.1.5.5.7.3.1"))));
+            if (dnsName != null) {
+                write(extensions, extension("2.5.29.17", false, Der.sequence(Der.ascii(0x82, dnsName))));
+            }
+        }
+        if (crlDistributionPoint != null) {
+            // DistributionPoint ::= SEQUENCE { distributionPoint [0] { fullName [0] { uniformResourceIdentifier } } }
+            byte[] fullName = Der.explicit(0, Der.explicit(0, Der.ascii(0x86, crlDistributionPoint)));
+            write(extensions, extension("2.5.29.31", false, Der.sequence(Der.sequence(fullName))));
+        }
+        if (ocspResponder != null) {
+            byte[] ocsp = Der.sequence(Der.oid("1.3.6.1.5.5.7.48.1"), Der.ascii(0x86, ocspResponder));
+            write(extensions, extension("1.3.6.1.5.5.7.1.1", false, Der.sequence(ocsp)));
+        }
+        byte[] tbs = Der.sequence(
+                Der.explicit(0, Der.integer(2)),
+                Der.integer(serial),
+                algorithm,
+                issuer.getEncoded(),
+                Der.sequence(Der.time(notBefore), Der.time(notAfter)),
+                subject.getEncoded(),
+                keyPair.getPublic().getEncoded(),
+                Der.explicit(3, Der.sequence(extensions.toByteArray())));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(issuerKey);
+        signature.update(tbs);
+        byte[] certificate = Der.sequence(tbs, algorithm, Der.bitString(signature.sign()));
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        return (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(certificate));
+    }
+
+    static byte[] extension(String oid, boolean critical, byte[] value) {
+        return critical ? Der.sequence(Der.oid(oid), Der.bool(true), Der.octetString(value))
+                : Der.sequence(Der.oid(oid), Der.octetString(value));
+    }
+
+    /**
+     * Computes the key identifier like {@code subjectKeyIdentifier = hash}: the SHA-1 of the subject public key bits.
+     * @param publicKey the public key
+     * @return the key identifier
+     */
+    static byte[] keyIdentifier(PublicKey publicKey) throws GeneralSecurityException {
+        byte[] info = publicKey.getEncoded();
+        // SubjectPublicKeyInfo ::= SEQUENCE { algorithm AlgorithmIdentifier, subjectPublicKey BIT STRING }
+        int bits = Der.next(info, Der.contentOffset(info, 0));
+        int offset = Der.contentOffset(info, bits) + 1;
+        int end = Der.next(info, bits);
+        return MessageDigest.getInstance("SHA-1").digest(Arrays.copyOfRange(info, offset, end));
+    }
+
+    private static void write(ByteArrayOutputStream out, byte[] bytes) {
+        out.write(bytes, 0, bytes.length);
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.tamal.java;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates in memory the certificates which {@code generate-certificates.sh} used to create with openssl:
+ * <ul>
+ *     <li>{@code rootca}: self-signed root CA</li>
+ *     <li>{@code intermediate0}: CA with path length 0, signed by {@code rootca}</li>
+ *     <li>{@code server}: server certificate signed by {@code intermediate0}</li>
+ *     <li>{@code intermediate}: CA signed by {@code intermediate0}, which violates its path length</li>
+ *     <li>{@code server0}: server certificate signed by {@code intermediate}, with the key of {@code server}</li>
+ * </ul>
+ */
+public class CertificateGenerator {
+
+    private final KeyPairPool keys;
+    private final Map<String, X509Certificate> certificates = new LinkedHashMap<>();
+    private final Map<String, PrivateKey> privateKeys = new LinkedHashMap<>();
+
+    /**
+     * @param keys the key pairs, at least 4 for distinct keys per CA and server
+     */
+    public CertificateGenerator(KeyPairPool keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * @param server the DNS name of the server certificates
+     * @return this generator
+     * @throws GeneralSecurityException if a certificate cannot be signed
+     */
+    public CertificateGenerator generate(String server) throws GeneralSecurityException {
+        String serverName = "CN=" + server + ", OU=CPBU, O=VMware, L=Bengaluru, ST=Karnataka, C=IN";
+        KeyPair serverKey = keys.get(0);
+
+        KeyPair rootKey = keys.get(1);
+        X509Certificate root = new CertificateBuilder("CN=Root CA", rootKey).ca(-1).authorityKeyIdentifier()
+                .selfSign();
+        put("rootca", root, rootKey);
+        KeyPair intermediate0Key = keys.get(2);
+        X509Certificate intermediate0 = new CertificateBuilder("CN=Intermediate 0", intermediate0Key).ca(0)
+                .authorityKeyIdentifier().signBy(root, rootKey.getPrivate());
+        put("intermediate0", intermediate0, intermediate0Key);
+        put("server", new CertificateBuilder(serverName, serverKey).server(server)
+                .signBy(intermediate0, intermediate0Key.getPrivate()), serverKey);
+
+        KeyPair intermediateKey = keys.get(3);
+        X509Certificate intermediate = new CertificateBuilder("CN=Intermediate", intermediateKey).ca(-1)
+                .authorityKeyIdentifier().signBy(intermediate0, intermediate0Key.getPrivate());
+        put("intermediate", intermediate, intermediateKey);
+        put("server0", new CertificateBuilder(serverName, serverKey).server(server)
+                .signBy(intermediate, intermediateKey.getPrivate()), serverKey);
+        return this;
+    }
+
+    /**
+     * Generates a chain of a server certificate, intermediate CAs and a root CA, named {@code chain<depth>-<index>}
+     * with index 0 for the server and {@code depth - 1} for the root.
+     * @param server the DNS name of the server certificate
+     * @param depth the number of certificates, at least 2
+     * @return the certificates in server-intermediate-root order
+     * @throws GeneralSecurityException if a certificate cannot be signed
+     */
+    public List<X509Certificate> chain(String server, int depth) throws GeneralSecurityException {
+        X509Certificate[] chain = new X509Certificate[depth];
+        KeyPair issuerKey = keys.get(depth - 1);
+        X509Certificate issuer = new CertificateBuilder("CN=Root CA " + depth, issuerKey).ca(-1)
+                .authorityKeyIdentifier().selfSign();
+        chain[depth - 1] = issuer;
+        put("chain" + depth + "-" + (depth - 1), issuer, issuerKey);
+        for (int i = depth - 2; i > 0; i--) {
+            KeyPair key = keys.get(i);
+            X509Certificate intermediate = new CertificateBuilder("CN=Intermediate " + depth + "-" + i, key).ca(-1)
+                    .authorityKeyIdentifier().signBy(issuer, issuerKey.getPrivate());
+            chain[i] = intermediate;
+            put("chain" + depth + "-" + i, intermediate, key);
+            issuer = intermediate;
+            issuerKey = key;
+        }
+        KeyPair key = keys.get(0);
+        chain[0] = new CertificateBuilder("CN=" + server, key).server(server).authorityKeyIdentifier()
+                .signBy(issuer, issuerKey.getPrivate());
+        put("chain" + depth + "-0", chain[0], key);
+        return Arrays.asList(chain);
+    }
+
+    private void put(String name, X509Certificate certificate, KeyPair keyPair) {
+        certificates.put(name, certificate);
+        privateKeys.put(name, keyPair.getPrivate());
+    }
+
+    public X509Certificate get(String name) {
+        return certificates.get(name);
+    }
+
+    public PrivateKey getKey(String name) {
+        return privateKeys.get(name);
+    }
+
+    public Map<String, X509Certificate> getCertificates() {
+        return certificates;
+    }
+
+    /**
+     * Writes every certificate as {@code <name>.crt} in PEM format.
+     * @param dir the directory
+     * @throws IOException if a file cannot be written
+     * @throws CertificateEncodingException if a certificate cannot be encoded
+     */
+    public void write(Path dir) throws IOException, CertificateEncodingException {
+        for (Map.Entry<String, X509Certificate> entry : certificates.entrySet()) {
+            byte[] pem = toPem(entry.getValue()).getBytes(StandardCharsets.US_ASCII);
+            Files.write(dir.resolve(entry.getKey() + ".crt"), pem);
+        }
+    }
+
+    public static String toPem(X509Certificate certificate) throws CertificateEncodingException {
+        return "-----BEGIN CERTIFICATE-----\n"
+                + Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(certificate.getEncoded())
+                + "\n-----END CERTIFICATE-----\n";
+    }
+
+}
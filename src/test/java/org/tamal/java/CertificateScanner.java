@@ -0,0 +1,388 @@
+package org.tamal.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertPathBuilderException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audits large certificate bundles, e.g. CA stores or exported keystores, for expiry and path length violations.
+ * Every file is memory-mapped and split into one slice per certificate without copying: PEM blocks are found by
+ * their markers and DER certificates by their tag and length. The slices are parsed in parallel on an executor, with
+ * a {@link CertificateFactory} per thread.
+ */
+public class CertificateScanner {
+
+    private static final byte[] BEGIN = "-----BEGIN CERTIFICATE-----".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "-----END CERTIFICATE-----".getBytes(StandardCharsets.US_ASCII);
+    private static final int BATCH = 256;
+
+    private final ThreadLocal<CertificateFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (CertificateException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private final Executor executor;
+    private long[] windows = { 0, TimeUnit.DAYS.toMillis(7), TimeUnit.DAYS.toMillis(30), TimeUnit.DAYS.toMillis(90) };
+
+    /**
+     * A certificate of a bundle, or the error which prevented to parse it.
+     */
+    public static class Entry {
+
+        private final Path file;
+        private final int offset;
+        private final X509Certificate certificate;
+        private final String error;
+
+        Entry(Path file, int offset, X509Certificate certificate, String error) {
+            this.file = file;
+            this.offset = offset;
+            this.certificate = certificate;
+            this.error = error;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the offset of the certificate in the file
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            String what = certificate == null ? error
+                    : certificate.getSubjectX500Principal() + " expires " + certificate.getNotAfter();
+            return file + "@" + offset + ": " + what;
+        }
+    }
+
+    /**
+     * A CA whose path length constraint is exceeded by a chain of the bundle, like {@code PKIXReason.PATH_TOO_LONG}.
+     */
+    public static class Violation {
+
+        private final X509Certificate certificate;
+        private final X509Certificate constrained;
+        private final int intermediates;
+
+        Violation(X509Certificate certificate, X509Certificate constrained, int intermediates) {
+            this.certificate = certificate;
+            this.constrained = constrained;
+            this.intermediates = intermediates;
+        }
+
+        /**
+         * @return the certificate at the end of the chain
+         */
+        public X509Certificate getCertificate() {
+            return certificate;
+        }
+
+        /**
+         * @return the CA whose path length constraint is exceeded
+         */
+        public X509Certificate getConstrained() {
+            return constrained;
+        }
+
+        /**
+         * @return the number of intermediate CAs which follow the constrained CA
+         */
+        public int getIntermediates() {
+            return intermediates;
+        }
+
+        @Override
+        public String toString() {
+            return certificate.getSubjectX500Principal() + ": " + intermediates + " intermediate CAs below "
+                    + constrained.getSubjectX500Principal() + " with path length " + constrained.getBasicConstraints();
+        }
+    }
+
+    /**
+     * The result of a scan.
+     */
+    public static class Report {
+
+        private final List<Entry> certificates = new ArrayList<>();
+        private final List<Entry> errors = new ArrayList<>();
+        private final SortedMap<Long, List<Entry>> expiring = new TreeMap<>();
+        private final List<Violation> violations = new ArrayList<>();
+
+        /**
+         * @return the parsed certificates, in the order of the files
+         */
+        public List<Entry> getCertificates() {
+            return certificates;
+        }
+
+        /**
+         * @return the blocks which could not be parsed
+         */
+        public List<Entry> getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the certificates by expiry window: the upper bound of the window in milliseconds from the time of
+         * the scan, 0 for the expired certificates; each window sorted by expiry
+         */
+        public SortedMap<Long, List<Entry>> getExpiring() {
+            return expiring;
+        }
+
+        public List<Violation> getViolations() {
+            return violations;
+        }
+    }
+
+    /**
+     * @param executor parses the certificates
+     */
+    public CertificateScanner(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param windows the expiry windows, in milliseconds from the time of the scan; 0 for the expired certificates
+     * @return this scanner
+     */
+    public CertificateScanner windows(long... windows) {
+        this.windows = windows.clone();
+        Arrays.sort(this.windows);
+        return this;
+    }
+
+    /**
+     * Scans PEM or DER bundles.
+     * @param files the bundles
+     * @return the report
+     * @throws IOException if a file cannot be read
+     */
+    public Report scan(Path... files) throws IOException {
+        List<CompletableFuture<List<Entry>>> batches = new ArrayList<>();
+        for (Path file : files) {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            List<ByteBuffer> slices = split(buffer);
+            for (int i = 0; i < slices.size(); i += BATCH) {
+                List<ByteBuffer> batch = slices.subList(i, Math.min(i + BATCH, slices.size()));
+                batches.add(CompletableFuture.supplyAsync(() -> parse(file, batch), executor));
+            }
+        }
+        Report report = new Report();
+        for (CompletableFuture<List<Entry>> batch : batches) {
+            for (Entry entry : batch.join()) {
+                (entry.certificate == null ? report.errors : report.certificates).add(entry);
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (Entry entry : report.certificates) {
+            long remaining = entry.certificate.getNotAfter().getTime() - now;
+            for (long window : windows) {
+                if (remaining <= window) {
+                    report.expiring.computeIfAbsent(window, k -> new ArrayList<>()).add(entry);
+                    break;
+                }
+            }
+        }
+        for (List<Entry> entries : report.expiring.values()) {
+            entries.sort(Comparator.comparing(entry -> entry.certificate.getNotAfter()));
+        }
+        checkPathLength(report);
+        return report;
+    }
+
+    /**
+     * Builds the chains of the distinct certificates of the bundle, up to its self-signed certificates, and checks
+     * the path length constraint of every CA of the chain, including the root like openssl does.
+     */
+    private static void checkPathLength(Report report) {
+        Set<X509Certificate> distinct = new LinkedHashSet<>();
+        Set<TrustAnchor> roots = new HashSet<>();
+        for (Entry entry : report.certificates) {
+            X509Certificate certificate = entry.certificate;
+            if (distinct.add(certificate) && isSelfIssued(certificate)) {
+                roots.add(new TrustAnchor(certificate, null));
+            }
+        }
+        ChainBuilder builder = new ChainBuilder(roots).addAll(distinct);
+        for (X509Certificate certificate : distinct) {
+            if (isSelfIssued(certificate)) {
+                continue;
+            }
+            List<X509Certificate> chain;
+            try {
+                ChainBuilder.Chain built = builder.build(certificate);
+                chain = new ArrayList<>(built.getCertificates());
+                chain.add(built.getAnchor().getTrustedCert());
+            } catch (CertPathBuilderException e) {
+                continue;
+            }
+            int intermediates = 0;
+            for (int k = 1; k < chain.size(); k++) {
+                int pathLength = chain.get(k).getBasicConstraints();
+                if (pathLength >= 0 && intermediates > pathLength) {
+                    report.violations.add(new Violation(certificate, chain.get(k), intermediates));
+                    break;
+                }
+                if (!isSelfIssued(chain.get(k))) {
+                    intermediates++;
+                }
+            }
+        }
+    }
+
+    private static boolean isSelfIssued(X509Certificate certificate) {
+        return certificate.getSubjectX500Principal().equals(certificate.getIssuerX500Principal());
+    }
+
+    private List<Entry> parse(Path file, Collection<ByteBuffer> slices) {
+        CertificateFactory factory = factories.get();
+        List<Entry> entries = new ArrayList<>(slices.size());
+        for (ByteBuffer slice : slices) {
+            // the slices share the indexes of the mapped file
+            int offset = slice.position();
+            try {
+                X509Certificate certificate = (X509Certificate) factory.generateCertificate(
+                        new ByteBufferInputStream(slice.duplicate()));
+                entries.add(new Entry(file, offset, certificate, null));
+            } catch (CertificateException e) {
+                entries.add(new Entry(file, offset, null, e.getMessage()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Splits a bundle into one slice per certificate: the PEM blocks if the bundle has any, or else the top level DER
+     * sequences.
+     * @param buffer the bundle
+     * @return the slices, sharing the content of the bundle
+     */
+    static List<ByteBuffer> split(ByteBuffer buffer) {
+        List<ByteBuffer> slices = new ArrayList<>();
+        int limit = buffer.limit();
+        int begin = indexOf(buffer, BEGIN, 0);
+        if (begin >= 0) {
+            while (begin >= 0) {
+                int end = indexOf(buffer, END, begin + BEGIN.length);
+                if (end < 0) {
+                    slices.add(slice(buffer, begin, limit));
+                    break;
+                }
+                slices.add(slice(buffer, begin, end + END.length));
+                begin = indexOf(buffer, BEGIN, end + END.length);
+            }
+            return slices;
+        }
+        int offset = 0;
+        while (offset + 2 <= limit) {
+            int length = buffer.get(offset + 1) & 0xFF;
+            int header = 2;
+            if (length >= 0x80) {
+                int bytes = length & 0x7F;
+                length = 0;
+                for (int i = 0; i < bytes && offset + 2 + i < limit; i++) {
+                    length = length << 8 | buffer.get(offset + 2 + i) & 0xFF;
+                }
+                header += bytes;
+            }
+            int end = length < 0 ? limit : (int) Math.min(limit, (long) offset + header + length);
+            slices.add(slice(buffer, offset, end));
+            offset = end;
+        }
+        return slices;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte[] marker, int from) {
+        int last = buffer.limit() - marker.length;
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < marker.length; j++) {
+                if (buffer.get(i + j) != marker[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(to).position(from);
+        return slice;
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
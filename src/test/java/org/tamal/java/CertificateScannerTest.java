@@ -0,0 +1,97 @@
+package org.tamal.java;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class CertificateScannerTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final int COPIES = 2_000;
+
+    private final KeyPairPool keys = new KeyPairPool("RSA", 2048, 4);
+    private final CertificateGenerator generator = new CertificateGenerator(keys);
+    private final List<X509Certificate> certificates = new ArrayList<>();
+
+    @BeforeClass
+    void init() throws GeneralSecurityException {
+        certificates.addAll(generator.generate("localhost").getCertificates().values());
+        long now = System.currentTimeMillis();
+        certificates.add(new CertificateBuilder("CN=expired", keys.get(0)).server("expired")
+                .validity(new Date(now - 10 * DAY), new Date(now - DAY))
+                .signBy(generator.get("rootca"), generator.getKey("rootca")));
+    }
+
+    @Test
+    public void testPemBundle() throws IOException, GeneralSecurityException {
+        StringBuilder bundle = new StringBuilder();
+        for (int i = 0; i < COPIES; i++) {
+            for (X509Certificate certificate : certificates) {
+                bundle.append("subject=").append(certificate.getSubjectX500Principal()).append('\n');
+                bundle.append(CertificateGenerator.toPem(certificate));
+            }
+        }
+        bundle.append("-----BEGIN CERTIFICATE-----\nMIIB\n-----END CERTIFICATE-----\n");
+        Path file = Files.createTempFile("bundle", ".pem");
+        try {
+            Files.write(file, bundle.toString().getBytes(StandardCharsets.US_ASCII));
+            long start = System.nanoTime();
+            CertificateScanner.Report report = new CertificateScanner(ForkJoinPool.commonPool()).scan(file);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Scanned %d certificates in %d ms%n", report.getCertificates().size(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+            assertEquals(report.getCertificates().size(), COPIES * certificates.size());
+            assertEquals(report.getErrors().size(), 1);
+            assertEquals(report.getExpiring().get(0L).size(), COPIES);
+            assertEquals(report.getExpiring().get(0L).get(0).getCertificate().getSubjectX500Principal().getName(),
+                    "CN=expired");
+            assertEquals(report.getExpiring().get(30 * DAY).size(), COPIES * (certificates.size() - 1));
+            assertEquals(report.getViolations().size(), 1);
+            CertificateScanner.Violation violation = report.getViolations().get(0);
+            assertEquals(violation.getCertificate(), generator.get("server0"));
+            assertEquals(violation.getConstrained(), generator.get("intermediate0"));
+            assertEquals(violation.getIntermediates(), 1);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testDerBundle() throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        for (X509Certificate certificate : certificates) {
+            bundle.write(certificate.getEncoded());
+        }
+        bundle.write(new byte[] { 0x30, 0x03, 0x02, 0x01 });
+        Path file = Files.createTempFile("bundle", ".der");
+        try {
+            Files.write(file, bundle.toByteArray());
+            CertificateScanner.Report report = new CertificateScanner(ForkJoinPool.commonPool())
+                    .windows(0, 60 * DAY).scan(file);
+            assertEquals(report.getCertificates().size(), certificates.size());
+            assertEquals(report.getCertificates().get(1).getOffset(), certificates.get(0).getEncoded().length);
+            assertEquals(report.getErrors().size(), 1);
+            assertEquals(report.getExpiring().get(0L).size(), 1);
+            assertEquals(report.getExpiring().get(60 * DAY).size(), certificates.size() - 1);
+            assertTrue(report.getViolations().get(0).toString().contains("with path length 0"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
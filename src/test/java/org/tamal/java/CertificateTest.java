@@ -3,43 +3,50 @@ package org.tamal.java;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.security.cert.CertPath;
+import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertPathValidator;
 import java.security.cert.CertPathValidatorException;
 import java.security.cert.CertPathValidatorResult;
-import java.security.cert.Certificate;
+import java.security.cert.CertStore;
 import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXCertPathValidatorResult;
 import java.security.cert.PKIXParameters;
 import java.security.cert.PKIXReason;
 import java.security.cert.TrustAnchor;
-import java.security.cert.X509CertSelector;
+import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class CertificateTest {
     private Path dir;
+    private static final KeyPairPool KEYS = new KeyPairPool("RSA", 2048, 4);
+    private final CertificateGenerator generator = new CertificateGenerator(KEYS);
+    private final CertificateValidator validator = new CertificateValidator(ForkJoinPool.commonPool());
 
     @BeforeClass
-    void init() throws IOException, InterruptedException {
+    void init() throws IOException, GeneralSecurityException {
         dir = Files.createTempDirectory("certificate-");
         System.out.println(dir);
-        Path script = dir.resolve("generate-certificates.sh");
-        Files.copy(getClass().getResourceAsStream("/generate-certificates.sh"), script);
-        Process process = new ProcessBuilder("bash", "-x", script.toString()).directory(dir.toFile()).inheritIO().start();
-        assertEquals(process.waitFor(), 0);
+        generator.generate("localhost").write(dir);
     }
 
     @Test
@@ -77,6 +84,146 @@ public class CertificateTest {
         }
     }
 
+    @Test
+    void testUnorderedChain() throws IOException, GeneralSecurityException {
+        Set<TrustAnchor> anchors = Collections.singleton(new TrustAnchor(generator.get("rootca"), null));
+        CertPathValidatorResult result = validator.validateUnordered(anchors, dir.resolve("intermediate0.crt"),
+                dir.resolve("rootca.crt"), dir.resolve("server.crt"));
+        assertEquals(((PKIXCertPathValidatorResult) result).getTrustAnchor().getTrustedCert(), generator.get("rootca"));
+
+        ChainBuilder.Chain chain = new ChainBuilder(anchors).build(Arrays.asList(generator.get("intermediate"),
+                generator.get("server0"), generator.get("intermediate0")));
+        assertEquals(chain.getCertificates(), Arrays.asList(generator.get("server0"), generator.get("intermediate"),
+                generator.get("intermediate0")));
+        assertSame(chain.getAnchor(), anchors.iterator().next());
+    }
+
+    @Test(expectedExceptions = CertPathValidatorException.class)
+    void testUnorderedChainPathLength() throws IOException, GeneralSecurityException {
+        Set<TrustAnchor> anchors = Collections.singleton(new TrustAnchor(generator.get("rootca"), null));
+        try {
+            validator.validateUnordered(anchors, dir.resolve("intermediate0.crt"), dir.resolve("server0.crt"),
+                    dir.resolve("intermediate.crt"));
+        } catch (CertPathValidatorException e) {
+            assertEquals(e.getReason(), PKIXReason.PATH_TOO_LONG);
+            throw e;
+        }
+    }
+
+    @Test(expectedExceptions = CertPathBuilderException.class)
+    void testUnorderedChainMissingIntermediateCA() throws IOException, GeneralSecurityException {
+        Set<TrustAnchor> anchors = Collections.singleton(new TrustAnchor(generator.get("rootca"), null));
+        validator.validateUnordered(anchors, dir.resolve("server.crt"));
+    }
+
+    @Test
+    void testRevocation() throws GeneralSecurityException {
+        List<X509Certificate> chain = generator.chain("localhost", 3);
+        X509Certificate root = chain.get(2);
+        X509Certificate intermediate = chain.get(1);
+        List<X509CRL> crls = Arrays.asList(new CrlBuilder(root, generator.getKey("chain3-2")).build(),
+                new CrlBuilder(intermediate, generator.getKey("chain3-1")).build());
+        PKIXParameters parameters = new PKIXParameters(Collections.singleton(new TrustAnchor(root, null)));
+        parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls)));
+        CertPath certPath = CertificateFactory.getInstance("X.509").generateCertPath(chain.subList(0, 2));
+        CertPathValidator.getInstance("PKIX").validate(certPath, parameters);
+
+        X509CRL revoked = new CrlBuilder(intermediate, generator.getKey("chain3-1")).revoke(chain.get(0)).build();
+        parameters.setCertStores(Collections.singletonList(CertStore.getInstance("Collection",
+                new CollectionCertStoreParameters(Arrays.asList(crls.get(0), revoked)))));
+        try {
+            CertPathValidator.getInstance("PKIX").validate(certPath, parameters);
+            fail("Revoked certificate accepted");
+        } catch (CertPathValidatorException e) {
+            assertEquals(e.getReason(), CertPathValidatorException.BasicReason.REVOKED);
+        }
+    }
+
+    @Test
+    void testGeneratedCertificates() throws GeneralSecurityException {
+        X509Certificate root = generator.get("rootca");
+        X509Certificate intermediate0 = generator.get("intermediate0");
+        X509Certificate server = generator.get("server");
+        root.verify(root.getPublicKey());
+        intermediate0.verify(root.getPublicKey());
+        server.verify(intermediate0.getPublicKey());
+        assertEquals(root.getBasicConstraints(), Integer.MAX_VALUE);
+        assertEquals(intermediate0.getBasicConstraints(), 0);
+        assertEquals(server.getBasicConstraints(), -1);
+        assertEquals(server.getSubjectX500Principal().getName(),
+                "CN=localhost,OU=CPBU,O=VMware,L=Bengaluru,ST=Karnataka,C=IN");
+        assertEquals(server.getSubjectAlternativeNames().iterator().next().get(1), "localhost");
+        assertEquals(server.getExtendedKeyUsage().get(0), "1.3.6.1.5.5.7.3.1");
+        assertTrue(server.getKeyUsage()[2] && server.getKeyUsage()[3] && !server.getKeyUsage()[5]);
+        assertTrue(intermediate0.getKeyUsage()[5] && intermediate0.getKeyUsage()[6]);
+        assertTrue(server.getCriticalExtensionOIDs().contains("2.5.29.19"));
+        // the authority key identifier of a certificate is the subject key identifier of its issuer
+        byte[] subjectKeyId = root.getExtensionValue("2.5.29.14");
+        byte[] authorityKeyId = intermediate0.getExtensionValue("2.5.29.35");
+        assertEquals(Arrays.copyOfRange(authorityKeyId, authorityKeyId.length - 20, authorityKeyId.length),
+                Arrays.copyOfRange(subjectKeyId, subjectKeyId.length - 20, subjectKeyId.length));
+        assertEquals(generator.get("server0").getPublicKey(), server.getPublicKey());
+    }
+
+    @Test
+    void testCache() throws IOException, GeneralSecurityException {
+        CertificateValidator validator = new CertificateValidator(ForkJoinPool.commonPool());
+        Path[] chain = { dir.resolve("server.crt"), dir.resolve("intermediate0.crt"), dir.resolve("rootca.crt") };
+        CertPathValidatorResult result = validator.validate(chain);
+        assertSame(validator.validate(chain), result);
+        assertSame(validator.parse(dir.resolve("server.crt")), validator.parse(dir.resolve("server.crt")));
+        assertEquals(validator.getCachedCertificates(), 3);
+        assertEquals(validator.getCachedResults(), 1);
+    }
+
+    @Test
+    void testCacheBounds() throws IOException, GeneralSecurityException, InterruptedException {
+        CertificateValidator validator = new CertificateValidator(ForkJoinPool.commonPool()).cacheSize(2);
+        validator.validate(dir.resolve("server.crt"), dir.resolve("intermediate0.crt"), dir.resolve("rootca.crt"));
+        assertEquals(validator.getCachedCertificates(), 2);
+        assertEquals(validator.getCachedResults(), 1);
+
+        // a result is dropped once a certificate of its chain expires
+        long now = System.currentTimeMillis();
+        List<X509Certificate> chain = Collections.singletonList(new CertificateBuilder("CN=short", KEYS.get(0))
+                .server("short").validity(new Date(now - 60_000), new Date(now + 1_000))
+                .signBy(generator.get("rootca"), generator.getKey("rootca")));
+        Set<TrustAnchor> anchors = Collections.singleton(new TrustAnchor(generator.get("rootca"), null));
+        validator.validate(chain, anchors);
+        assertEquals(validator.getCachedResults(), 2);
+        Thread.sleep(2_000);
+        try {
+            validator.validate(chain, anchors);
+            fail("Expired certificate accepted");
+        } catch (CertPathValidatorException e) {
+            assertEquals(validator.getCachedResults(), 1);
+        }
+    }
+
+    @Test
+    void testConcurrentValidation() throws InterruptedException {
+        List<CompletableFuture<CertPathValidatorResult>> valid = new ArrayList<>();
+        List<CompletableFuture<CertPathValidatorResult>> invalid = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            valid.add(validator.validateAsync(dir.resolve("server.crt"), dir.resolve("intermediate0.crt"),
+                    dir.resolve("rootca.crt")));
+            invalid.add(validator.validateAsync(dir.resolve("server0.crt"), dir.resolve("intermediate.crt"),
+                    dir.resolve("intermediate0.crt"), dir.resolve("rootca.crt")));
+        }
+        for (CompletableFuture<CertPathValidatorResult> future : valid) {
+            assertTrue(future.join() instanceof PKIXCertPathValidatorResult);
+        }
+        for (CompletableFuture<CertPathValidatorResult> future : invalid) {
+            try {
+                future.get();
+                fail("Path length constraint not enforced");
+            } catch (ExecutionException e) {
+                CertPathValidatorException cause = (CertPathValidatorException) e.getCause();
+                assertEquals(cause.getReason(), PKIXReason.PATH_TOO_LONG);
+            }
+        }
+    }
+
     /**
      * Verifies certificate chain against a trusted certificate.
      * @param certificates the certificate chain in server-intermediate-root order
@@ -85,23 +232,6 @@ public class CertificateTest {
      * @throws GeneralSecurityException if the certificate cannot be parsed or the validation fails
      */
     private CertPathValidatorResult validate(Path... certificates) throws IOException, GeneralSecurityException {
-        CertificateFactory factory = CertificateFactory.getInstance("X.509");
-        List<Certificate> certs = new ArrayList<>();
-        for (Path certPath : certificates) {
-            try (InputStream inputStream = new FileInputStream(certPath.toFile())) {
-                certs.addAll(factory.generateCertificates(inputStream));
-            }
-        }
-        assertTrue(certs.size() > 1);
-        X509Certificate rootCA = (X509Certificate) certs.remove(certs.size() - 1);
-        Set<TrustAnchor> anchors = Collections.singleton(new TrustAnchor(rootCA, null));
-        CertPath certPath = factory.generateCertPath(certs);
-        X509CertSelector x509CertSelector = new X509CertSelector();
-        x509CertSelector.setCertificateValid(new Date());
-        PKIXParameters pkixParameters = new PKIXParameters(anchors);
-        pkixParameters.setTargetCertConstraints(x509CertSelector);
-        pkixParameters.setRevocationEnabled(false);
-        CertPathValidator validator = CertPathValidator.getInstance("PKIX");
-        return validator.validate(certPath, pkixParameters);
+        return validator.validate(certificates);
     }
 }
@@ -0,0 +1,332 @@
+package org.tamal.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorResult;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Reusable certificate chain validator. Parsed certificates are cached by the SHA-256 of the file content, and
+ * successful PKIX results are cached by the fingerprints of the chain and of the trust anchors, for as long as every
+ * certificate involved is within its validity period. Both caches keep only the {@link #cacheSize(int) most recently
+ * used} entries, and expired results are dropped when read or once they are the least recently used.
+ * {@link CertificateFactory} and {@link CertPathValidator} are not thread-safe, so every thread keeps its own
+ * instances, and chains are validated concurrently on an executor.
+ * Revocation checking is off unless a {@link RevocationCache} provides the OCSP responses and CRLs.
+ */
+public class CertificateValidator {
+
+    private static final int CACHE_SIZE = 10_000;
+
+    private final Lru<String, List<X509Certificate>> certificates = new Lru<>(CACHE_SIZE, null);
+    private final Lru<String, Validated> results = new Lru<>(CACHE_SIZE,
+            validated -> validated.isExpired(System.currentTimeMillis()));
+    private final ThreadLocal<CertificateFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return CertificateFactory.getInstance("X.509");
+        } catch (CertificateException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private final ThreadLocal<CertPathValidator> validators = ThreadLocal.withInitial(() -> {
+        try {
+            return CertPathValidator.getInstance("PKIX");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private final Executor executor;
+    private RevocationCache revocation;
+
+    private static class Validated {
+
+        private final CertPathValidatorResult result;
+        private final long notBefore;
+        private final long notAfter;
+
+        Validated(CertPathValidatorResult result, long notBefore, long notAfter) {
+            this.result = result;
+            this.notBefore = notBefore;
+            this.notAfter = notAfter;
+        }
+
+        boolean isValid(long now) {
+            return notBefore <= now && now <= notAfter;
+        }
+
+        boolean isExpired(long now) {
+            return now > notAfter;
+        }
+    }
+
+    /**
+     * Bounded cache which drops the least recently used entry once it is full, or as soon as that entry is stale.
+     */
+    private static class Lru<K, V> {
+
+        private final Map<K, V> map;
+        private volatile int maxSize;
+
+        Lru(int maxSize, Predicate<V> stale) {
+            this.maxSize = maxSize;
+            this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > Lru.this.maxSize || stale != null && stale.test(eldest.getValue());
+                }
+            };
+        }
+
+        synchronized V get(K key) {
+            return map.get(key);
+        }
+
+        synchronized V putIfAbsent(K key, V value) {
+            return map.putIfAbsent(key, value);
+        }
+
+        synchronized void put(K key, V value) {
+            map.put(key, value);
+        }
+
+        synchronized void remove(K key) {
+            map.remove(key);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+
+    /**
+     * @param executor runs the asynchronous validations
+     */
+    public CertificateValidator(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Enables revocation checking with the responses of a cache. Results are then cached until the earliest next
+     * update of the responses at most.
+     * @param revocation the cache of OCSP responses and CRLs
+     * @return this validator
+     */
+    public CertificateValidator revocation(RevocationCache revocation) {
+        this.revocation = revocation;
+        return this;
+    }
+
+    /**
+     * @param size the maximum number of parsed files and of validation results to cache, 10,000 each by default
+     * @return this validator
+     */
+    public CertificateValidator cacheSize(int size) {
+        certificates.maxSize = size;
+        results.maxSize = size;
+        return this;
+    }
+
+    /**
+     * Parses the PEM or DER certificates of a file, or returns them from the cache if the content was seen before.
+     * @param file the certificate file
+     * @return the certificates of the file
+     * @throws IOException if the file cannot be read
+     * @throws CertificateException if the file cannot be parsed
+     */
+    public List<X509Certificate> parse(Path file) throws IOException, CertificateException {
+        return parse(Files.readAllBytes(file));
+    }
+
+    /**
+     * Parses PEM or DER certificates, or returns them from the cache if the content was seen before.
+     * @param encoded the certificates
+     * @return the parsed certificates
+     * @throws CertificateException if the certificates cannot be parsed
+     */
+    public List<X509Certificate> parse(byte[] encoded) throws CertificateException {
+        String key = fingerprint(encoded);
+        List<X509Certificate> cached = certificates.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<X509Certificate> parsed = new ArrayList<>();
+        for (Certificate certificate : factories.get().generateCertificates(new ByteArrayInputStream(encoded))) {
+            parsed.add((X509Certificate) certificate);
+        }
+        parsed = Collections.unmodifiableList(parsed);
+        cached = certificates.putIfAbsent(key, parsed);
+        return cached == null ? parsed : cached;
+    }
+
+    /**
+     * Verifies certificate chain against a trusted certificate.
+     * @param certificates the certificate chain in server-intermediate-root order
+     * @return result of the validation algorithm
+     * @throws IOException if the file cannot be read
+     * @throws GeneralSecurityException if the certificate cannot be parsed or the validation fails
+     */
+    public CertPathValidatorResult validate(Path... certificates) throws IOException, GeneralSecurityException {
+        List<X509Certificate> certs = new ArrayList<>();
+        for (Path certPath : certificates) {
+            certs.addAll(parse(certPath));
+        }
+        if (certs.size() < 2) {
+            throw new CertificateException("Certificate chain without a trusted certificate");
+        }
+        X509Certificate rootCA = certs.remove(certs.size() - 1);
+        return validate(certs, Collections.singleton(new TrustAnchor(rootCA, null)));
+    }
+
+    /**
+     * Verifies certificate chain against trust anchors.
+     * @param chain the certificate chain, starting with the target certificate
+     * @param anchors the trusted certificates
+     * @return result of the validation algorithm, possibly cached
+     * @throws GeneralSecurityException if the validation fails
+     */
+    public CertPathValidatorResult validate(List<X509Certificate> chain, Set<TrustAnchor> anchors)
+            throws GeneralSecurityException {
+        String key = fingerprint(chain) + '/' + fingerprint(anchors);
+        long now = System.currentTimeMillis();
+        Validated validated = results.get(key);
+        if (validated != null) {
+            if (validated.isValid(now)) {
+                return validated.result;
+            } else if (validated.isExpired(now)) {
+                results.remove(key);
+            }
+        }
+        CertPath certPath = factories.get().generateCertPath(chain);
+        X509CertSelector x509CertSelector = new X509CertSelector();
+        x509CertSelector.setCertificateValid(new Date(now));
+        PKIXParameters pkixParameters = new PKIXParameters(anchors);
+        pkixParameters.setTargetCertConstraints(x509CertSelector);
+        pkixParameters.setRevocationEnabled(false);
+        pkixParameters.setDate(new Date(now));
+        CertPathValidator validator = validators.get();
+        long notAfter = Long.MAX_VALUE;
+        if (revocation != null) {
+            notAfter = revocation.apply(pkixParameters, validator, chain, anchors);
+        }
+        CertPathValidatorResult result = validator.validate(certPath, pkixParameters);
+
+        // the result holds while every certificate of the chain and the anchor are valid
+        long notBefore = Long.MIN_VALUE;
+        List<X509Certificate> involved = new ArrayList<>(chain);
+        for (TrustAnchor anchor : anchors) {
+            if (anchor.getTrustedCert() != null) {
+                involved.add(anchor.getTrustedCert());
+            }
+        }
+        for (X509Certificate certificate : involved) {
+            notBefore = Math.max(notBefore, certificate.getNotBefore().getTime());
+            notAfter = Math.min(notAfter, certificate.getNotAfter().getTime());
+        }
+        results.put(key, new Validated(result, notBefore, notAfter));
+        return result;
+    }
+
+    /**
+     * Verifies certificates given in any order against trust anchors, building the chain with a {@link ChainBuilder}.
+     * @param anchors the trusted certificates
+     * @param certificates the target certificate and its intermediate CAs, in any order
+     * @return result of the validation algorithm, possibly cached
+     * @throws IOException if a file cannot be read
+     * @throws GeneralSecurityException if a certificate cannot be parsed, the chain cannot be built or the
+     * validation fails
+     */
+    public CertPathValidatorResult validateUnordered(Set<TrustAnchor> anchors, Path... certificates)
+            throws IOException, GeneralSecurityException {
+        List<X509Certificate> certs = new ArrayList<>();
+        for (Path certPath : certificates) {
+            certs.addAll(parse(certPath));
+        }
+        ChainBuilder.Chain chain = new ChainBuilder(anchors).build(certs);
+        return validate(chain.getCertificates(), Collections.singleton(chain.getAnchor()));
+    }
+
+    /**
+     * Validates a chain on the executor.
+     * @param certificates the certificate chain in server-intermediate-root order
+     * @return the future result, completed exceptionally if the validation fails
+     */
+    public CompletableFuture<CertPathValidatorResult> validateAsync(Path... certificates) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return validate(certificates);
+            } catch (IOException | GeneralSecurityException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public int getCachedCertificates() {
+        return certificates.size();
+    }
+
+    public int getCachedResults() {
+        return results.size();
+    }
+
+    private String fingerprint(byte[] encoded) {
+        return Base64.getEncoder().encodeToString(digests.get().digest(encoded));
+    }
+
+    private String fingerprint(List<X509Certificate> chain) throws CertificateEncodingException {
+        MessageDigest digest = digests.get();
+        for (X509Certificate certificate : chain) {
+            digest.update(certificate.getEncoded());
+        }
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private String fingerprint(Set<TrustAnchor> anchors) throws CertificateEncodingException {
+        // the fingerprint of a set does not depend on its iteration order
+        Set<String> fingerprints = new TreeSet<>();
+        for (TrustAnchor anchor : anchors) {
+            if (anchor.getTrustedCert() != null) {
+                fingerprints.add(fingerprint(anchor.getTrustedCert().getEncoded()));
+            } else {
+                fingerprints.add(anchor.getCAName() + ':' + fingerprint(anchor.getCAPublicKey().getEncoded()));
+            }
+        }
+        return String.join(",", fingerprints);
+    }
+
+}
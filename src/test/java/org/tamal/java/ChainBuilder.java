@@ -0,0 +1,220 @@
+package org.tamal.java;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CertPathBuilderException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds certificate chains from an unordered bag of certificates. Trust anchors and intermediate certificates are
+ * indexed by subject key identifier and by subject DN, so every hop from a certificate to its issuer is a hash lookup
+ * on the authority key identifier, or on the issuer DN when the certificate has none. The chain is returned in
+ * target-to-root order, ready for {@link java.security.cert.CertPathValidator}, which still does the validation.
+ */
+public class ChainBuilder {
+
+    private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+    private static final String AUTHORITY_KEY_IDENTIFIER = "2.5.29.35";
+
+    private final Map<String, List<TrustAnchor>> anchorsByKeyId = new HashMap<>();
+    private final Map<X500Principal, List<TrustAnchor>> anchorsBySubject = new HashMap<>();
+    private final Map<String, List<X509Certificate>> byKeyId = new HashMap<>();
+    private final Map<X500Principal, List<X509Certificate>> bySubject = new HashMap<>();
+    private final Set<X509Certificate> certificates = new HashSet<>();
+
+    /**
+     * A chain which ends at a trust anchor.
+     */
+    public static class Chain {
+
+        private final List<X509Certificate> certificates;
+        private final TrustAnchor anchor;
+
+        Chain(List<X509Certificate> certificates, TrustAnchor anchor) {
+            this.certificates = Collections.unmodifiableList(certificates);
+            this.anchor = anchor;
+        }
+
+        /**
+         * @return the certificates from the target up to, but excluding, the trust anchor
+         */
+        public List<X509Certificate> getCertificates() {
+            return certificates;
+        }
+
+        public TrustAnchor getAnchor() {
+            return anchor;
+        }
+    }
+
+    /**
+     * @param anchors the trusted certificates or CAs
+     */
+    public ChainBuilder(Set<TrustAnchor> anchors) {
+        for (TrustAnchor anchor : anchors) {
+            X509Certificate trusted = anchor.getTrustedCert();
+            X500Principal subject = trusted == null ? anchor.getCA() : trusted.getSubjectX500Principal();
+            anchorsBySubject.computeIfAbsent(subject, k -> new ArrayList<>(1)).add(anchor);
+            String keyId = trusted == null ? null : keyId(trusted, SUBJECT_KEY_IDENTIFIER);
+            if (keyId != null) {
+                anchorsByKeyId.computeIfAbsent(keyId, k -> new ArrayList<>(1)).add(anchor);
+            }
+        }
+    }
+
+    /**
+     * Adds certificates which may be intermediate CAs of a chain.
+     * @param certificates the certificates, in any order
+     * @return this builder
+     */
+    public ChainBuilder addAll(Collection<X509Certificate> certificates) {
+        for (X509Certificate certificate : certificates) {
+            if (!this.certificates.add(certificate)) {
+                continue;
+            }
+            bySubject.computeIfAbsent(certificate.getSubjectX500Principal(), k -> new ArrayList<>(1)).add(certificate);
+            String keyId = keyId(certificate, SUBJECT_KEY_IDENTIFIER);
+            if (keyId != null) {
+                byKeyId.computeIfAbsent(keyId, k -> new ArrayList<>(1)).add(certificate);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds the certificates and builds the chain of the one which does not issue any other certificate of the bag.
+     * @param certificates the target certificate and its intermediate CAs, in any order
+     * @return the chain of the target
+     * @throws CertPathBuilderException if there is no single target or the chain does not reach a trust anchor
+     */
+    public Chain build(Collection<X509Certificate> certificates) throws CertPathBuilderException {
+        addAll(certificates);
+        Set<X500Principal> issuers = new HashSet<>();
+        for (X509Certificate certificate : certificates) {
+            if (!certificate.getIssuerX500Principal().equals(certificate.getSubjectX500Principal())) {
+                issuers.add(certificate.getIssuerX500Principal());
+            }
+        }
+        X509Certificate target = null;
+        for (X509Certificate certificate : certificates) {
+            if (issuers.contains(certificate.getSubjectX500Principal())) {
+                continue;
+            }
+            if (target != null) {
+                throw new CertPathBuilderException("More than one target certificate: "
+                        + target.getSubjectX500Principal() + ", " + certificate.getSubjectX500Principal());
+            }
+            target = certificate;
+        }
+        if (target == null) {
+            throw new CertPathBuilderException("No target certificate");
+        }
+        return build(target);
+    }
+
+    /**
+     * Builds the chain of a certificate from the indexed certificates.
+     * @param target the end entity certificate
+     * @return the chain of the target
+     * @throws CertPathBuilderException if the chain does not reach a trust anchor
+     */
+    public Chain build(X509Certificate target) throws CertPathBuilderException {
+        List<X509Certificate> chain = new ArrayList<>();
+        Set<X509Certificate> visited = new HashSet<>();
+        X509Certificate certificate = target;
+        while (visited.add(certificate)) {
+            chain.add(certificate);
+            String keyId = keyId(certificate, AUTHORITY_KEY_IDENTIFIER);
+            X500Principal issuer = certificate.getIssuerX500Principal();
+            List<TrustAnchor> anchors = keyId == null ? null : anchorsByKeyId.get(keyId);
+            TrustAnchor anchor = issuer(certificate, anchors != null ? anchors : anchorsBySubject.get(issuer));
+            if (anchor != null) {
+                return new Chain(chain, anchor);
+            }
+            List<X509Certificate> candidates = keyId == null ? null : byKeyId.get(keyId);
+            X509Certificate next = issuer(certificate, candidates != null ? candidates : bySubject.get(issuer));
+            if (next == null) {
+                throw new CertPathBuilderException("No issuer " + issuer + " of "
+                        + certificate.getSubjectX500Principal());
+            }
+            certificate = next;
+        }
+        throw new CertPathBuilderException("Loop in chain at " + certificate.getSubjectX500Principal());
+    }
+
+    public int size() {
+        return certificates.size();
+    }
+
+    /**
+     * Picks the issuer among candidates with a matching key identifier or subject. The signature is only checked to
+     * choose between several candidates, e.g. after a CA key rollover, since the validator checks it anyway.
+     */
+    private static <T> T issuer(X509Certificate certificate, List<T> candidates) {
+        if (candidates == null) {
+            return null;
+        }
+        for (T candidate : candidates) {
+            X509Certificate trusted = candidate instanceof TrustAnchor ? ((TrustAnchor) candidate).getTrustedCert()
+                    : (X509Certificate) candidate;
+            if (trusted != null && trusted.equals(certificate)) {
+                continue;
+            }
+            PublicKey key = trusted == null ? ((TrustAnchor) candidate).getCAPublicKey() : trusted.getPublicKey();
+            X500Principal subject = trusted == null ? ((TrustAnchor) candidate).getCA()
+                    : trusted.getSubjectX500Principal();
+            if (!subject.equals(certificate.getIssuerX500Principal())) {
+                continue;
+            }
+            if (candidates.size() == 1) {
+                return candidate;
+            }
+            try {
+                certificate.verify(key);
+                return candidate;
+            } catch (GeneralSecurityException e) {
+                // signed by another key with the same name
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param certificate the certificate
+     * @param oid the subject or authority key identifier extension
+     * @return the key identifier encoded in Base64, or null if the certificate has none
+     */
+    private static String keyId(X509Certificate certificate, String oid) {
+        byte[] extension = certificate.getExtensionValue(oid);
+        if (extension == null) {
+            return null;
+        }
+        // the extension value is an OCTET STRING wrapping a KeyIdentifier (OCTET STRING) for the subject, or an
+        // AuthorityKeyIdentifier ::= SEQUENCE { keyIdentifier [0] IMPLICIT OCTET STRING OPTIONAL, ... }
+        int offset = Der.contentOffset(extension, 0);
+        if (oid.equals(AUTHORITY_KEY_IDENTIFIER)) {
+            if (Der.contentLength(extension, offset) == 0) {
+                return null;
+            }
+            offset = Der.contentOffset(extension, offset);
+            if (extension[offset] != (byte) 0x80) {
+                return null;
+            }
+        }
+        byte[] keyId = Arrays.copyOfRange(extension, Der.contentOffset(extension, offset), Der.next(extension, offset));
+        return Base64.getEncoder().encodeToString(keyId);
+    }
+
+}
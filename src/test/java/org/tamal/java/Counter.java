@@ -0,0 +1,156 @@
+package org.tamal.java;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter which many threads update concurrently, like the counter of {@link ThreadTest#testSynchronizedCounter()}.
+ * The implementations trade the cost of {@link #get()} for the throughput of the updates under contention:
+ * <ul>
+ * <li>{@link Synchronized}: one monitor, every update waits for the others</li>
+ * <li>{@link Atomic}: one {@link AtomicInteger}, every update retries on the same cache line</li>
+ * <li>{@link Adder}: a {@link LongAdder}, which spreads the updates over cells once it detects contention</li>
+ * <li>{@link Striped}: one cache line per thread from the start, for counters known to be hot</li>
+ * </ul>
+ * Use {@link Atomic} if the value is read as often as it is updated, and {@link Adder} or {@link Striped} for hot
+ * metrics which are mostly updated and read now and then.
+ */
+public interface Counter {
+
+	void add(long delta);
+
+	/**
+	 * @return the value, which is not a snapshot if the counter is updated concurrently, except for
+	 * {@link Synchronized} and {@link Atomic}
+	 */
+	long get();
+
+	default void increment() {
+		add(1);
+	}
+
+	default void decrement() {
+		add(-1);
+	}
+
+	/**
+	 * Counter guarded by its monitor.
+	 */
+	final class Synchronized implements Counter {
+
+		private long value;
+
+		@Override
+		public synchronized void add(long delta) {
+			value += delta;
+		}
+
+		@Override
+		public synchronized long get() {
+			return value;
+		}
+	}
+
+	/**
+	 * Counter backed by an {@link AtomicInteger}, which overflows past {@link Integer#MAX_VALUE}.
+	 */
+	final class Atomic implements Counter {
+
+		private final AtomicInteger value = new AtomicInteger();
+
+		@Override
+		public void add(long delta) {
+			value.addAndGet((int) delta);
+		}
+
+		@Override
+		public void increment() {
+			value.incrementAndGet();
+		}
+
+		@Override
+		public void decrement() {
+			value.decrementAndGet();
+		}
+
+		@Override
+		public long get() {
+			return value.get();
+		}
+	}
+
+	/**
+	 * Counter backed by a {@link LongAdder}.
+	 */
+	final class Adder implements Counter {
+
+		private final LongAdder value = new LongAdder();
+
+		@Override
+		public void add(long delta) {
+			value.add(delta);
+		}
+
+		@Override
+		public void increment() {
+			value.increment();
+		}
+
+		@Override
+		public void decrement() {
+			value.decrement();
+		}
+
+		@Override
+		public long get() {
+			return value.sum();
+		}
+	}
+
+	/**
+	 * Counter with one stripe per thread, each in its own cache line so that threads do not invalidate the lines of
+	 * the others (false sharing). The stripes are slots of an {@link AtomicLongArray} 128 bytes apart, since the JVM
+	 * may reorder the padding fields of an object but not the elements of an array. Threads are assigned stripes
+	 * round robin, so stripes are only shared when there are more threads than stripes.
+	 */
+	final class Striped implements Counter {
+
+		/** Longs per stripe: 128 bytes, two cache lines because of the adjacent line prefetch of x86. */
+		private static final int STRIDE = 16;
+		private static final AtomicInteger THREADS = new AtomicInteger();
+		private static final ThreadLocal<Integer> THREAD = ThreadLocal.withInitial(THREADS::getAndIncrement);
+
+		private final AtomicLongArray stripes;
+		private final int mask;
+
+		public Striped() {
+			this(Runtime.getRuntime().availableProcessors() * 2);
+		}
+
+		/**
+		 * @param stripes the number of stripes, rounded up to a power of 2
+		 */
+		public Striped(int stripes) {
+			int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+			this.stripes = new AtomicLongArray((size + 1) * STRIDE);
+			this.mask = size - 1;
+		}
+
+		@Override
+		public void add(long delta) {
+			// the first stripe starts one stride in, away from the header of the array
+			stripes.getAndAdd(((THREAD.get() & mask) + 1) * STRIDE, delta);
+		}
+
+		@Override
+		public long get() {
+			long sum = 0;
+			for (int i = STRIDE; i < stripes.length(); i += STRIDE) {
+				sum += stripes.get(i);
+			}
+			return sum;
+		}
+	}
+
+}
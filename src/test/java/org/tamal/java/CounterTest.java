@@ -0,0 +1,92 @@
+package org.tamal.java;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Correctness of the {@link Counter} implementations under contention, with the invariant of
+ * {@link ThreadTest#testSynchronizedCounter()}: as many increments as decrements leave the counter at 0.
+ */
+public class CounterTest {
+
+	private static final int ITERATIONS = 100_000;
+	private static final int CPUS = Runtime.getRuntime().availableProcessors();
+
+	@DataProvider
+	public Object[][] counters() {
+		List<Supplier<Counter>> counters = new ArrayList<>();
+		counters.add(Counter.Synchronized::new);
+		counters.add(Counter.Atomic::new);
+		counters.add(Counter.Adder::new);
+		counters.add(Counter.Striped::new);
+		counters.add(() -> new Counter.Striped(1));
+		List<Object[]> data = new ArrayList<>();
+		for (Supplier<Counter> counter : counters) {
+			for (int threads : new int[] { 2, 4, 2 * CPUS }) {
+				data.add(new Object[] { counter.get(), threads });
+			}
+		}
+		return data.toArray(new Object[0][]);
+	}
+
+	/**
+	 * Half the threads increment and the other half decrement the counter.
+	 * @param counter the counter
+	 * @param threads the number of threads, even
+	 * @throws InterruptedException will never be thrown
+	 */
+	@Test(dataProvider = "counters")
+	public void testZeroSum(Counter counter, int threads) throws InterruptedException {
+		long elapsed = run(threads, i -> i % 2 == 0 ? counter::increment : counter::decrement);
+		System.out.printf("%s with %d threads: %d ns per update%n", counter.getClass().getSimpleName(), threads,
+				elapsed / ((long) threads * ITERATIONS));
+		assertEquals(counter.get(), 0);
+	}
+
+	@Test(dataProvider = "counters")
+	public void testSum(Counter counter, int threads) throws InterruptedException {
+		run(threads, i -> () -> counter.add(i));
+		assertEquals(counter.get(), (long) threads * (threads - 1) / 2 * ITERATIONS);
+	}
+
+	private interface Updates {
+		Runnable update(int thread);
+	}
+
+	/**
+	 * Runs the updates of every thread {@link #ITERATIONS} times, starting all threads at once.
+	 * @return the elapsed time in nanoseconds
+	 */
+	private static long run(int threads, Updates updates) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			Runnable update = updates.update(i);
+			workers[i] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int j = 0; j < ITERATIONS; j++) {
+					update.run();
+				}
+			});
+			workers[i].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - begin;
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.tamal.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds X.509 v2 CRLs signed with SHA256withRSA by a CA of {@link CertificateBuilder}.
+ */
+public class CrlBuilder {
+
+    private static final AtomicLong NUMBER = new AtomicLong(1);
+    private static final String SHA256_WITH_RSA = "1.2.840.113549.1.1.11";
+
+    private final X509Certificate issuer;
+    private final PrivateKey issuerKey;
+    private final Map<BigInteger, Date> revoked = new LinkedHashMap<>();
+    private Date thisUpdate = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+    private Date nextUpdate = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * @param issuer the CA certificate
+     * @param issuerKey the private key of the CA
+     */
+    public CrlBuilder(X509Certificate issuer, PrivateKey issuerKey) {
+        this.issuer = issuer;
+        this.issuerKey = issuerKey;
+    }
+
+    public CrlBuilder update(Date thisUpdate, Date nextUpdate) {
+        this.thisUpdate = thisUpdate;
+        this.nextUpdate = nextUpdate;
+        return this;
+    }
+
+    public CrlBuilder revoke(X509Certificate certificate) {
+        return revoke(certificate.getSerialNumber(), thisUpdate);
+    }
+
+    public CrlBuilder revoke(BigInteger serial, Date date) {
+        revoked.put(serial, date);
+        return this;
+    }
+
+    public X509CRL build() throws GeneralSecurityException {
+        byte[] algorithm = Der.sequence(Der.oid(SHA256_WITH_RSA), Der.nul());
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        for (Map.Entry<BigInteger, Date> entry : revoked.entrySet()) {
+            byte[] bytes = Der.sequence(Der.integer(entry.getKey()), Der.time(entry.getValue()));
+            entries.write(bytes, 0, bytes.length);
+        }
+        byte[] keyId = Der.tlv(0x80, CertificateBuilder.keyIdentifier(issuer.getPublicKey()));
+        byte[] extensions = Der.explicit(0, Der.sequence(
+                CertificateBuilder.extension("2.5.29.35", false, Der.sequence(keyId)),
+                CertificateBuilder.extension("2.5.29.20", false, Der.integer(NUMBER.getAndIncrement()))));
+        byte[] tbs = Der.sequence(
+                Der.integer(1),
+                algorithm,
+                issuer.getSubjectX500Principal().getEncoded(),
+                Der.time(thisUpdate),
+                Der.time(nextUpdate),
+                revoked.isEmpty() ? new byte[0] : Der.sequence(entries.toByteArray()),
+                extensions);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(issuerKey);
+        signature.update(tbs);
+        byte[] crl = Der.sequence(tbs, algorithm, Der.bitString(signature.sign()));
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        return (X509CRL) factory.generateCRL(new ByteArrayInputStream(crl));
+    }
+
+}
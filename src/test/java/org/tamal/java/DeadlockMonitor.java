@@ -0,0 +1,286 @@
+package org.tamal.java;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the {@link ThreadMXBean} in the background, instead of calling {@link ThreadMXBean#findDeadlockedThreads()}
+ * once after the fact like {@link ThreadTest#testDeadLock()}. Every sample reports the new deadlocks, with the
+ * stacks and the locks of the threads involved, and the locks which blocked threads the longest since the previous
+ * sample, with their owners. Thread contention monitoring is enabled while the monitor runs, for the blocked times.
+ * <p>
+ * A sample costs a few microseconds per thread. The monitor measures its own CPU time, and samples less often
+ * whenever it exceeds its budget, 1% of one processor by default.
+ */
+public class DeadlockMonitor implements AutoCloseable {
+
+	private final ThreadMXBean bean;
+	private final Listener listener;
+	private final Map<Long, Sample> previous = new HashMap<>();
+	private final Set<Long> deadlocked = new HashSet<>();
+	private ScheduledExecutorService executor;
+	private boolean contentionMonitoring;
+	private long interval = 1000;
+	private double budget = 0.01;
+	private int top = 5;
+	private long cpuTime;
+	private long started;
+
+	/**
+	 * Receives the findings of the monitor, on the thread of the monitor.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param threads the threads of a new deadlock, with their stacks and locks
+		 */
+		void deadlock(ThreadInfo[] threads);
+
+		/**
+		 * @param contentions the most contended locks since the previous sample, most blocked first
+		 */
+		void contention(List<Contention> contentions);
+	}
+
+	/**
+	 * How long threads were blocked on a lock between two samples.
+	 */
+	public static class Contention {
+
+		private final String lock;
+		private final Set<String> owners = new LinkedHashSet<>();
+		private long blockedTime;
+		private long blockedCount;
+
+		Contention(String lock) {
+			this.lock = lock;
+		}
+
+		/**
+		 * @return the class name and identity hash code of the lock, like {@link LockInfo#toString()}
+		 */
+		public String getLock() {
+			return lock;
+		}
+
+		/**
+		 * @return the names of the threads which owned the lock at the time of the sample
+		 */
+		public Set<String> getOwners() {
+			return owners;
+		}
+
+		/**
+		 * @return the time threads spent blocked on monitors in milliseconds, or 0 if not measured
+		 */
+		public long getBlockedTime() {
+			return blockedTime;
+		}
+
+		/**
+		 * @return the number of times threads blocked on monitors, or waited for the lock
+		 */
+		public long getBlockedCount() {
+			return blockedCount;
+		}
+
+		@Override
+		public String toString() {
+			return lock + " blocked " + blockedCount + " times for " + blockedTime + " ms, owned by " + owners;
+		}
+	}
+
+	private static final Sample NONE = new Sample();
+
+	private static class Sample {
+
+		private final long blockedTime;
+		private final long blockedCount;
+		private final String lock;
+
+		Sample() {
+			blockedTime = 0;
+			blockedCount = 0;
+			lock = null;
+		}
+
+		Sample(ThreadInfo thread) {
+			blockedTime = thread.getBlockedTime();
+			blockedCount = thread.getBlockedCount() + thread.getWaitedCount();
+			lock = thread.getLockName();
+		}
+	}
+
+	public DeadlockMonitor(Listener listener) {
+		this(ManagementFactory.getThreadMXBean(), listener);
+	}
+
+	public DeadlockMonitor(ThreadMXBean bean, Listener listener) {
+		this.bean = bean;
+		this.listener = listener;
+	}
+
+	/**
+	 * @param interval the minimum time between two samples in milliseconds
+	 * @return this monitor
+	 */
+	public DeadlockMonitor interval(long interval) {
+		this.interval = interval;
+		return this;
+	}
+
+	/**
+	 * @param budget the fraction of one processor the monitor may use, e.g. 0.01
+	 * @return this monitor
+	 */
+	public DeadlockMonitor budget(double budget) {
+		this.budget = budget;
+		return this;
+	}
+
+	/**
+	 * @param top the number of most contended locks to report
+	 * @return this monitor
+	 */
+	public DeadlockMonitor top(int top) {
+		this.top = top;
+		return this;
+	}
+
+	/**
+	 * Starts sampling on a daemon thread.
+	 * @return this monitor
+	 */
+	public synchronized DeadlockMonitor start() {
+		if (bean.isThreadContentionMonitoringSupported()) {
+			contentionMonitoring = bean.isThreadContentionMonitoringEnabled();
+			bean.setThreadContentionMonitoringEnabled(true);
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "deadlock-monitor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		started = System.nanoTime();
+		executor.schedule(this::run, interval, TimeUnit.MILLISECONDS);
+		return this;
+	}
+
+	/**
+	 * Stops sampling and restores the thread contention monitoring.
+	 */
+	@Override
+	public synchronized void close() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		executor = null;
+		if (bean.isThreadContentionMonitoringSupported()) {
+			bean.setThreadContentionMonitoringEnabled(contentionMonitoring);
+		}
+	}
+
+	/**
+	 * @return the CPU time of the monitor divided by its elapsed time, since it started
+	 */
+	public synchronized double getOverhead() {
+		long elapsed = System.nanoTime() - started;
+		return elapsed <= 0 ? 0 : (double) cpuTime / elapsed;
+	}
+
+	/**
+	 * @return the current time between two samples in milliseconds, increased to keep within the budget
+	 */
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+	private void run() {
+		long cpuStart = bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() : 0;
+		try {
+			sample();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			if (executor == null) {
+				return;
+			}
+			long cpu = bean.isCurrentThreadCpuTimeSupported() ? bean.getCurrentThreadCpuTime() - cpuStart : 0;
+			cpuTime += cpu;
+			// the sample must not cost more than the budget of the time until the next one
+			long minimum = TimeUnit.NANOSECONDS.toMillis((long) (cpu / budget));
+			if (minimum > interval) {
+				interval = Math.min(minimum, 2 * interval);
+			}
+			executor.schedule(this::run, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Takes one sample, and reports what it found to the listener.
+	 */
+	void sample() {
+		long[] ids = bean.findDeadlockedThreads();
+		if (ids != null) {
+			long[] fresh = Arrays.stream(ids).filter(deadlocked::add).toArray();
+			if (fresh.length > 0) {
+				listener.deadlock(bean.getThreadInfo(fresh, bean.isObjectMonitorUsageSupported(),
+						bean.isSynchronizerUsageSupported()));
+			}
+		}
+
+		// without stack traces, a sample is cheap
+		ThreadInfo[] threads = bean.getThreadInfo(bean.getAllThreadIds());
+		Map<String, Contention> contentions = new LinkedHashMap<>();
+		Map<Long, Sample> current = new HashMap<>();
+		for (ThreadInfo thread : threads) {
+			if (thread == null) {
+				continue;
+			}
+			Sample sample = new Sample(thread);
+			current.put(thread.getThreadId(), sample);
+			// the first sample is only the baseline, but threads started since the previous sample count from zero
+			Sample before = previous.isEmpty() ? sample : previous.getOrDefault(thread.getThreadId(), NONE);
+			long blockedTime = Math.max(0, sample.blockedTime - before.blockedTime);
+			long blockedCount = sample.blockedCount - before.blockedCount;
+			// a thread which acquired the lock since the previous sample was blocked on the lock of that sample
+			String lock = sample.lock != null ? sample.lock : blockedTime > 0 ? before.lock : null;
+			if (lock == null || thread.getLockOwnerName() == null && blockedTime == 0) {
+				continue;
+			}
+			Contention contention = contentions.computeIfAbsent(lock, Contention::new);
+			contention.blockedTime += blockedTime;
+			contention.blockedCount += blockedCount;
+			if (thread.getLockOwnerName() != null) {
+				contention.owners.add(thread.getLockOwnerName());
+			}
+		}
+		previous.clear();
+		previous.putAll(current);
+		deadlocked.retainAll(current.keySet());
+
+		List<Contention> sorted = new ArrayList<>(contentions.values());
+		sorted.sort((c1, c2) -> c1.blockedTime != c2.blockedTime ? Long.compare(c2.blockedTime, c1.blockedTime)
+				: Long.compare(c2.blockedCount, c1.blockedCount));
+		if (!sorted.isEmpty()) {
+			listener.contention(sorted.subList(0, Math.min(top, sorted.size())));
+		}
+	}
+
+}
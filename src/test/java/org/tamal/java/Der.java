@@ -0,0 +1,217 @@
+package org.tamal.java;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Minimal ASN.1 DER encoder, just enough to build X.509 certificates without the internal {@code sun.security.x509}
+ * classes, plus a reader of the tag-length headers to walk encoded structures.
+ */
+final class Der {
+
+    static final int BOOLEAN = 0x01;
+    static final int INTEGER = 0x02;
+    static final int BIT_STRING = 0x03;
+    static final int OCTET_STRING = 0x04;
+    static final int NULL = 0x05;
+    static final int OID = 0x06;
+    static final int ENUMERATED = 0x0A;
+    static final int IA5_STRING = 0x16;
+    static final int UTC_TIME = 0x17;
+    static final int GENERALIZED_TIME = 0x18;
+    static final int SEQUENCE = 0x30;
+
+    private Der() {
+    }
+
+    /**
+     * @param tag the identifier octet
+     * @param contents the encoded contents, concatenated
+     * @return the TLV encoding
+     */
+    static byte[] tlv(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents) {
+            length += content.length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> i * 8);
+            }
+        }
+        for (byte[] content : contents) {
+            out.write(content, 0, content.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] sequence(byte[]... contents) {
+        return tlv(SEQUENCE, contents);
+    }
+
+    /**
+     * @param number the context-specific tag number
+     * @return an explicit, constructed context-specific tag
+     */
+    static byte[] explicit(int number, byte[]... contents) {
+        return tlv(0xA0 | number, contents);
+    }
+
+    static byte[] integer(BigInteger value) {
+        return tlv(INTEGER, value.toByteArray());
+    }
+
+    static byte[] integer(long value) {
+        return integer(BigInteger.valueOf(value));
+    }
+
+    static byte[] bool(boolean value) {
+        return tlv(BOOLEAN, new byte[] { (byte) (value ? 0xFF : 0) });
+    }
+
+    static byte[] nul() {
+        return tlv(NULL);
+    }
+
+    static byte[] octetString(byte[] value) {
+        return tlv(OCTET_STRING, value);
+    }
+
+    /**
+     * @param value the bytes of the bit string, whose length is a multiple of 8
+     */
+    static byte[] bitString(byte[] value) {
+        return tlv(BIT_STRING, new byte[] { 0 }, value);
+    }
+
+    /**
+     * Encodes named bits, e.g. key usages, without the trailing zero bits.
+     * @param bits the bit numbers, 0 being the most significant bit of the first byte
+     */
+    static byte[] namedBits(int... bits) {
+        int last = 0;
+        for (int bit : bits) {
+            last = Math.max(last, bit);
+        }
+        byte[] value = new byte[last / 8 + 2];
+        value[0] = (byte) (7 - last % 8);
+        for (int bit : bits) {
+            value[bit / 8 + 1] |= 0x80 >>> bit % 8;
+        }
+        return tlv(BIT_STRING, value);
+    }
+
+    static byte[] oid(String oid) {
+        String[] arcs = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Integer.parseInt(arcs[0]) * 40 + Integer.parseInt(arcs[1]));
+        for (int i = 2; i < arcs.length; i++) {
+            long arc = Long.parseLong(arcs[i]);
+            int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(arc) + 6) / 7);
+            for (int g = groups - 1; g >= 0; g--) {
+                out.write((int) (arc >>> g * 7 & 0x7F) | (g > 0 ? 0x80 : 0));
+            }
+        }
+        return tlv(OID, out.toByteArray());
+    }
+
+    static byte[] ascii(int tag, String value) {
+        return tlv(tag, value.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Encodes a certificate validity time: UTCTime until 2049, GeneralizedTime from 2050 (RFC 5280).
+     */
+    static byte[] time(Date date) {
+        SimpleDateFormat year = new SimpleDateFormat("yyyy");
+        year.setTimeZone(TimeZone.getTimeZone("UTC"));
+        if (Integer.parseInt(year.format(date)) >= 2050) {
+            return generalizedTime(date);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return ascii(UTC_TIME, format.format(date));
+    }
+
+    static byte[] generalizedTime(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return ascii(GENERALIZED_TIME, format.format(date));
+    }
+
+    /**
+     * @param encoded an encoding
+     * @param offset the offset of a UTCTime or GeneralizedTime in seconds
+     * @return the time
+     * @throws ParseException if the time cannot be parsed
+     */
+    static Date parseTime(byte[] encoded, int offset) throws ParseException {
+        String time = new String(encoded, contentOffset(encoded, offset), contentLength(encoded, offset),
+                StandardCharsets.US_ASCII);
+        SimpleDateFormat format = new SimpleDateFormat(encoded[offset] == UTC_TIME ? "yyMMddHHmmss'Z'"
+                : "yyyyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.parse(time);
+    }
+
+    /**
+     * @param encoded an encoding
+     * @param offset the offset of a TLV
+     * @return the offset of the contents of the TLV
+     */
+    static int contentOffset(byte[] encoded, int offset) {
+        int length = encoded[offset + 1] & 0xFF;
+        return offset + 2 + (length < 0x80 ? 0 : length & 0x7F);
+    }
+
+    /**
+     * @param encoded an encoding
+     * @param offset the offset of a TLV
+     * @return the length of the contents of the TLV
+     */
+    static int contentLength(byte[] encoded, int offset) {
+        int length = encoded[offset + 1] & 0xFF;
+        if (length < 0x80) {
+            return length;
+        }
+        int value = 0;
+        for (int i = 0; i < (length & 0x7F); i++) {
+            value = value << 8 | encoded[offset + 2 + i] & 0xFF;
+        }
+        return value;
+    }
+
+    /**
+     * @return the offset of the TLV following the one at the offset
+     */
+    static int next(byte[] encoded, int offset) {
+        return contentOffset(encoded, offset) + contentLength(encoded, offset);
+    }
+
+    /**
+     * @return the TLV at the offset
+     */
+    static byte[] element(byte[] encoded, int offset) {
+        return Arrays.copyOfRange(encoded, offset, next(encoded, offset));
+    }
+
+    /**
+     * @return the contents of the TLV at the offset
+     */
+    static byte[] content(byte[] encoded, int offset) {
+        return Arrays.copyOfRange(encoded, contentOffset(encoded, offset), next(encoded, offset));
+    }
+
+}
@@ -0,0 +1,101 @@
+package org.tamal.java;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Turn which two threads hand over to each other, like the {@code wait()}/{@code notify()} exchange of
+ * {@link ThreadTest#testWaitNotify()} but without a monitor. A thread waiting for its turn spins for a while, since
+ * the other thread usually hands the turn over within microseconds, and then parks until it is unparked by
+ * {@link #pass(int)}. Everything a thread writes before it passes the turn is visible to the other thread once it
+ * has the turn, so the two threads can exchange requests and responses through plain fields.
+ * <p>
+ * Each party must be a single thread: party 0 waits for turn 0 and passes turn 1, and party 1 the other way round.
+ */
+public final class Handoff {
+
+	/** Spinning only helps if the other thread runs at the same time on another processor. */
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+
+	private final AtomicReferenceArray<Thread> waiters = new AtomicReferenceArray<>(2);
+	private volatile int turn;
+
+	/**
+	 * @param turn the party which has the first turn, 0 or 1
+	 */
+	public Handoff(int turn) {
+		this.turn = turn;
+	}
+
+	/**
+	 * Waits until the party has the turn.
+	 * @param party 0 or 1
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void await(int party) throws InterruptedException {
+		await(party, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Waits until the party has the turn, or the timeout elapses.
+	 * @param party 0 or 1
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if the party has the turn, false if the timeout elapsed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public boolean await(int party, long timeout, TimeUnit unit) throws InterruptedException {
+		return await(party, unit.toNanos(timeout));
+	}
+
+	private boolean await(int party, long nanos) throws InterruptedException {
+		for (int i = 0; i < SPINS; i++) {
+			if (turn == party) {
+				return true;
+			}
+		}
+		long deadline = System.nanoTime() + nanos;
+		// publish the waiter before checking the turn again, so that pass() either sees it or the check sees the turn
+		waiters.set(party, Thread.currentThread());
+		try {
+			while (turn != party) {
+				long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				if (remaining == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, remaining);
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			return true;
+		} finally {
+			waiters.set(party, null);
+		}
+	}
+
+	/**
+	 * Hands the turn over to a party, waking it up if it is parked.
+	 * @param party 0 or 1
+	 */
+	public void pass(int party) {
+		turn = party;
+		Thread waiter = waiters.get(party);
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * @return the party which has the turn
+	 */
+	public int getTurn() {
+		return turn;
+	}
+
+}
@@ -0,0 +1,49 @@
+package org.tamal.java;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fixed pool of key pairs, generated in parallel in the background as soon as the pool is created, and handed out
+ * by index so that every run of a fixture reuses the same keys. Key generation dominates the cost of test
+ * certificates, while the tests do not depend on the keys being distinct across chains.
+ */
+public class KeyPairPool {
+
+    private final CompletableFuture<?>[] keyPairs;
+
+    /**
+     * @param algorithm the key algorithm, e.g. {@code RSA}
+     * @param keySize the key size in bits
+     * @param size the number of key pairs
+     */
+    public KeyPairPool(String algorithm, int keySize, int size) {
+        keyPairs = new CompletableFuture<?>[size];
+        for (int i = 0; i < size; i++) {
+            keyPairs[i] = CompletableFuture.supplyAsync(() -> {
+                try {
+                    KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+                    generator.initialize(keySize);
+                    return generator.generateKeyPair();
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param index any non-negative number, wrapped around the size of the pool
+     * @return the key pair, waiting for it to be generated
+     */
+    public KeyPair get(int index) {
+        return (KeyPair) keyPairs[index % keyPairs.length].join();
+    }
+
+    public int size() {
+        return keyPairs.length;
+    }
+
+}
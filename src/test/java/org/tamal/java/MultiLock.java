@@ -0,0 +1,144 @@
+package org.tamal.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds a set of {@link ReentrantLock}s, acquired in a global order, the identity hash code of the locks. Threads
+ * which acquire overlapping sets of locks in the same order cannot deadlock, unlike {@code Person.addFriendSync} of
+ * {@link ThreadTest}, which locks {@code this} and then {@code friend}, and there is no need to retry after random
+ * sleeps like {@code Person.addFriendReentrant}. Locks with the same identity hash code are rare but have no order,
+ * so a set which contains some is acquired while holding a global tie-breaking lock.
+ * <pre>
+ * try (MultiLock lock = MultiLock.lock(from.lock, to.lock)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class MultiLock implements AutoCloseable {
+
+	private static final ReentrantLock TIE_LOCK = new ReentrantLock();
+	private static final Comparator<ReentrantLock> ORDER = Comparator.comparingInt(System::identityHashCode);
+
+	private final List<ReentrantLock> locks;
+
+	private MultiLock(List<ReentrantLock> locks) {
+		this.locks = locks;
+	}
+
+	/**
+	 * Acquires the locks in order, waiting as long as necessary.
+	 * @param locks the locks, in any order and possibly repeated
+	 * @return the held locks, to be closed
+	 */
+	public static MultiLock lock(ReentrantLock... locks) {
+		List<ReentrantLock> ordered = order(locks);
+		boolean tie = hasTie(ordered);
+		if (tie) {
+			TIE_LOCK.lock();
+		}
+		try {
+			for (ReentrantLock lock : ordered) {
+				lock.lock();
+			}
+		} finally {
+			if (tie) {
+				TIE_LOCK.unlock();
+			}
+		}
+		return new MultiLock(ordered);
+	}
+
+	/**
+	 * Acquires the locks only if none of them is held by another thread.
+	 * @param locks the locks, in any order and possibly repeated
+	 * @return the held locks, to be closed, or null if a lock is held by another thread
+	 */
+	public static MultiLock tryLock(ReentrantLock... locks) {
+		List<ReentrantLock> ordered = order(locks);
+		for (int i = 0; i < ordered.size(); i++) {
+			if (!ordered.get(i).tryLock()) {
+				unlock(ordered.subList(0, i));
+				return null;
+			}
+		}
+		return new MultiLock(ordered);
+	}
+
+	/**
+	 * Acquires the locks in order, waiting for each one no longer than what remains of the timeout. Since the order
+	 * rules out deadlocks, the locks already acquired are kept while waiting for the next one, and a timeout means
+	 * that some lock was held by another thread for the whole time.
+	 * @param timeout the maximum time to wait for all locks
+	 * @param unit the unit of the timeout
+	 * @param locks the locks, in any order and possibly repeated
+	 * @return the held locks, to be closed, or null if the timeout elapsed, in which case no lock is held
+	 * @throws InterruptedException if the thread is interrupted while waiting, in which case no lock is held
+	 */
+	public static MultiLock tryLock(long timeout, TimeUnit unit, ReentrantLock... locks) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		List<ReentrantLock> ordered = order(locks);
+		boolean tie = hasTie(ordered);
+		if (tie && !TIE_LOCK.tryLock(timeout, unit)) {
+			return null;
+		}
+		int acquired = 0;
+		try {
+			for (ReentrantLock lock : ordered) {
+				if (!lock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					break;
+				}
+				acquired++;
+			}
+		} finally {
+			if (acquired < ordered.size()) {
+				unlock(ordered.subList(0, acquired));
+			}
+			if (tie) {
+				TIE_LOCK.unlock();
+			}
+		}
+		return acquired == ordered.size() ? new MultiLock(ordered) : null;
+	}
+
+	/**
+	 * Releases the locks in the reverse order.
+	 */
+	@Override
+	public void close() {
+		unlock(locks);
+	}
+
+	private static List<ReentrantLock> order(ReentrantLock... locks) {
+		ReentrantLock[] sorted = locks.clone();
+		Arrays.sort(sorted, ORDER);
+		List<ReentrantLock> ordered = new ArrayList<>(sorted.length);
+		for (ReentrantLock lock : sorted) {
+			// sets are small, and repeated locks are not always adjacent when hash codes collide
+			if (!ordered.contains(lock)) {
+				ordered.add(lock);
+			}
+		}
+		return ordered;
+	}
+
+	private static boolean hasTie(List<ReentrantLock> ordered) {
+		for (int i = 1; i < ordered.size(); i++) {
+			if (System.identityHashCode(ordered.get(i - 1)) == System.identityHashCode(ordered.get(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void unlock(List<ReentrantLock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+}
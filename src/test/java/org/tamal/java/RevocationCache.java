@@ -0,0 +1,404 @@
+package org.tamal.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the OCSP responses and CRLs of certificates asynchronously and caches them until their next update, so
+ * that revocation checking does not add a network round-trip to every validation. A certificate is checked with
+ * OCSP if it names an OCSP responder, or else with the CRL of its distribution point. Concurrent misses share one
+ * fetch, and a response which is about to expire is refreshed in the background while it is still served.
+ * <p>
+ * The cached responses are handed to the {@link PKIXRevocationChecker} of the validator, which verifies them like
+ * responses it would have fetched itself, and never goes to the network.
+ */
+public class RevocationCache {
+
+    private static final String OCSP = "1.3.6.1.5.5.7.48.1";
+    private static final String SHA1 = "1.3.14.3.2.26";
+
+    private final ConcurrentMap<String, CompletableFuture<Response>> responses = new ConcurrentHashMap<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final Executor executor;
+    private int timeout = 5_000;
+    private long refreshAhead = TimeUnit.MINUTES.toMillis(5);
+    private long defaultTtl = TimeUnit.HOURS.toMillis(1);
+
+    private static class Response {
+
+        private final byte[] ocsp;
+        private final X509CRL crl;
+        private final long nextUpdate;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Response(byte[] ocsp, X509CRL crl, long nextUpdate) {
+            this.ocsp = ocsp;
+            this.crl = crl;
+            this.nextUpdate = nextUpdate;
+        }
+    }
+
+    /**
+     * How a certificate is checked: the cache key and the fetch of its response.
+     */
+    private static class Source {
+
+        private final X509Certificate certificate;
+        private final String uri;
+        private final byte[] request;
+
+        Source(X509Certificate certificate, String uri, byte[] request) {
+            this.certificate = certificate;
+            this.uri = uri;
+            this.request = request;
+        }
+
+        String key() {
+            return request == null ? uri : uri + '#' + Base64.getEncoder().encodeToString(request);
+        }
+    }
+
+    /**
+     * @param executor fetches the responses
+     */
+    public RevocationCache(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param timeout the connect and read timeout of a fetch, and how long a validation waits for a missing response
+     * @return this cache
+     */
+    public RevocationCache timeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param refreshAhead how long before its next update a response is refreshed in the background
+     * @return this cache
+     */
+    public RevocationCache refreshAhead(long refreshAhead) {
+        this.refreshAhead = refreshAhead;
+        return this;
+    }
+
+    /**
+     * @param defaultTtl how long a response without next update is cached
+     * @return this cache
+     */
+    public RevocationCache defaultTtl(long defaultTtl) {
+        this.defaultTtl = defaultTtl;
+        return this;
+    }
+
+    /**
+     * Fetches the responses of a chain which are missing or about to expire, without waiting for them.
+     * @param chain the certificate chain, starting with the target certificate
+     * @param anchors the trusted certificates
+     * @return the future completed once every response is cached
+     */
+    public CompletableFuture<Void> prefetch(List<X509Certificate> chain, Set<TrustAnchor> anchors) {
+        List<CompletableFuture<Response>> futures = new ArrayList<>();
+        try {
+            for (Source source : sources(chain, anchors)) {
+                futures.add(get(source));
+            }
+        } catch (GeneralSecurityException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Enables revocation checking of a chain with the cached responses, waiting only for the missing ones.
+     * @param parameters the parameters of the validation
+     * @param validator the validator which provides the revocation checker
+     * @param chain the certificate chain, starting with the target certificate
+     * @param anchors the trusted certificates
+     * @return the earliest next update of the responses, until which the revocation status holds
+     * @throws CertPathValidatorException if a response cannot be fetched, with the reason
+     * {@link CertPathValidatorException.BasicReason#UNDETERMINED_REVOCATION_STATUS}
+     */
+    public long apply(PKIXParameters parameters, CertPathValidator validator, List<X509Certificate> chain,
+            Set<TrustAnchor> anchors) throws CertPathValidatorException {
+        Map<X509Certificate, byte[]> ocspResponses = new HashMap<>();
+        List<X509CRL> crls = new ArrayList<>();
+        long nextUpdate = Long.MAX_VALUE;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            List<Source> sources = sources(chain, anchors);
+            List<CompletableFuture<Response>> futures = new ArrayList<>(sources.size());
+            for (Source source : sources) {
+                futures.add(get(source));
+            }
+            for (int i = 0; i < sources.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Response response = futures.get(i).get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                if (response.ocsp != null) {
+                    ocspResponses.put(sources.get(i).certificate, response.ocsp);
+                } else {
+                    crls.add(response.crl);
+                }
+                nextUpdate = Math.min(nextUpdate, response.nextUpdate);
+            }
+            PKIXRevocationChecker checker = (PKIXRevocationChecker) validator.getRevocationChecker();
+            checker.setOcspResponses(ocspResponses);
+            parameters.addCertPathChecker(checker);
+            parameters.addCertStore(CertStore.getInstance("Collection", new CollectionCertStoreParameters(crls)));
+        } catch (CertPathValidatorException e) {
+            throw e;
+        } catch (GeneralSecurityException | ExecutionException | TimeoutException e) {
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            throw new CertPathValidatorException("Revocation status not available: " + cause, cause, null, -1,
+                    CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CertPathValidatorException(e);
+        }
+        return nextUpdate;
+    }
+
+    /**
+     * @return the number of responses fetched so far
+     */
+    public int getFetches() {
+        return fetches.get();
+    }
+
+    private List<Source> sources(List<X509Certificate> chain, Set<TrustAnchor> anchors)
+            throws GeneralSecurityException {
+        List<Source> sources = new ArrayList<>(chain.size());
+        for (int i = 0; i < chain.size(); i++) {
+            X509Certificate certificate = chain.get(i);
+            X509Certificate issuer = i + 1 < chain.size() ? chain.get(i + 1) : null;
+            for (TrustAnchor anchor : anchors) {
+                X509Certificate trusted = anchor.getTrustedCert();
+                if (issuer == null && trusted != null
+                        && trusted.getSubjectX500Principal().equals(certificate.getIssuerX500Principal())) {
+                    issuer = trusted;
+                }
+            }
+            String ocsp = uri(certificate, "1.3.6.1.5.5.7.1.1");
+            String crl = uri(certificate, "2.5.29.31");
+            if (ocsp != null && issuer != null) {
+                sources.add(new Source(certificate, ocsp, ocspRequest(certificate, issuer)));
+            } else if (crl != null) {
+                sources.add(new Source(certificate, crl, null));
+            } else {
+                throw new CertPathValidatorException("Neither OCSP responder nor CRL distribution point for "
+                        + certificate.getSubjectX500Principal(), null, null, -1,
+                        CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the cached response, fetching it if it is missing or expired, or refreshing it in the background if it
+     * expires soon.
+     */
+    private CompletableFuture<Response> get(Source source) {
+        long now = System.currentTimeMillis();
+        CompletableFuture<Response> future = responses.compute(source.key(), (key, current) ->
+                current == null || isExpired(current, now) ? fetch(source) : current);
+        Response response = future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+        if (response != null && now >= response.nextUpdate - refreshAhead
+                && response.refreshing.compareAndSet(false, true)) {
+            fetch(source).whenComplete((fresh, e) -> {
+                if (e == null) {
+                    responses.replace(source.key(), future, CompletableFuture.completedFuture(fresh));
+                } else {
+                    response.refreshing.set(false);
+                }
+            });
+        }
+        return future;
+    }
+
+    private static boolean isExpired(CompletableFuture<Response> future, long now) {
+        if (!future.isDone()) {
+            return false;
+        }
+        if (future.isCompletedExceptionally()) {
+            return true;
+        }
+        return future.join().nextUpdate <= now;
+    }
+
+    private CompletableFuture<Response> fetch(Source source) {
+        return CompletableFuture.supplyAsync(() -> {
+            fetches.incrementAndGet();
+            try {
+                byte[] encoded = http(source.uri, source.request);
+                if (source.request != null) {
+                    return new Response(encoded, null, nextUpdate(encoded));
+                }
+                CertificateFactory factory = CertificateFactory.getInstance("X.509");
+                X509CRL crl = (X509CRL) factory.generateCRL(new ByteArrayInputStream(encoded));
+                Date nextUpdate = crl.getNextUpdate();
+                long expiry = nextUpdate == null ? System.currentTimeMillis() + defaultTtl : nextUpdate.getTime();
+                return new Response(null, crl, expiry);
+            } catch (IOException | GeneralSecurityException | ParseException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    private byte[] http(String uri, byte[] request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (request != null) {
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/ocsp-request");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(request);
+            }
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException(uri + ": " + connection.getResponseCode() + " " + connection.getResponseMessage());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @return the next update of the single response of an OCSP response, or the default TTL if it has none
+     */
+    private long nextUpdate(byte[] response) throws IOException, ParseException {
+        // OCSPResponse ::= SEQUENCE { responseStatus ENUMERATED, responseBytes [0] EXPLICIT ResponseBytes OPTIONAL }
+        int status = Der.contentOffset(response, 0);
+        int code = Der.content(response, status)[0];
+        if (code != 0) {
+            throw new IOException("OCSP response status " + code);
+        }
+        // ResponseBytes ::= SEQUENCE { responseType OBJECT IDENTIFIER, response OCTET STRING }
+        int responseBytes = Der.contentOffset(response, Der.next(response, status));
+        byte[] basic = Der.content(response, Der.next(response, Der.contentOffset(response, responseBytes)));
+        // BasicOCSPResponse ::= SEQUENCE { tbsResponseData ResponseData, ... }
+        // ResponseData ::= SEQUENCE { version [0] OPTIONAL, responderID, producedAt, responses SEQUENCE OF ... }
+        int field = Der.contentOffset(basic, Der.contentOffset(basic, 0));
+        if (basic[field] == (byte) 0xA0) {
+            field = Der.next(basic, field);
+        }
+        int responses = Der.next(basic, Der.next(basic, field));
+        // SingleResponse ::= SEQUENCE { certID, certStatus, thisUpdate, nextUpdate [0] EXPLICIT OPTIONAL, ... }
+        int single = Der.contentOffset(basic, responses);
+        int end = Der.next(basic, single);
+        field = Der.next(basic, Der.next(basic, Der.next(basic, Der.contentOffset(basic, single))));
+        if (field < end && basic[field] == (byte) 0xA0) {
+            return Der.parseTime(basic, Der.contentOffset(basic, field)).getTime();
+        }
+        return System.currentTimeMillis() + defaultTtl;
+    }
+
+    /**
+     * Encodes an OCSP request for one certificate, without nonce so that the response can be cached.
+     */
+    private static byte[] ocspRequest(X509Certificate certificate, X509Certificate issuer)
+            throws GeneralSecurityException {
+        // OCSPRequest ::= SEQUENCE { tbsRequest SEQUENCE { requestList SEQUENCE OF Request { reqCert CertID } } }
+        return Der.sequence(Der.sequence(Der.sequence(Der.sequence(certId(certificate, issuer)))));
+    }
+
+    /**
+     * @return the OCSP CertID of a certificate, with SHA-1 hashes
+     */
+    static byte[] certId(X509Certificate certificate, X509Certificate issuer) throws GeneralSecurityException {
+        byte[] nameHash = MessageDigest.getInstance("SHA-1").digest(issuer.getSubjectX500Principal().getEncoded());
+        return Der.sequence(
+                Der.sequence(Der.oid(SHA1), Der.nul()),
+                Der.octetString(nameHash),
+                Der.octetString(CertificateBuilder.keyIdentifier(issuer.getPublicKey())),
+                Der.integer(certificate.getSerialNumber()));
+    }
+
+    /**
+     * @param certificate the certificate
+     * @param oid the authority information access or the CRL distribution points extension
+     * @return the first OCSP responder or CRL distribution point URI, or null if there is none
+     */
+    private static String uri(X509Certificate certificate, String oid) {
+        byte[] extension = certificate.getExtensionValue(oid);
+        if (extension == null) {
+            return null;
+        }
+        byte[] value = Der.content(extension, 0);
+        int end = Der.next(value, 0);
+        for (int entry = Der.contentOffset(value, 0); entry < end; entry = Der.next(value, entry)) {
+            int field = Der.contentOffset(value, entry);
+            if (oid.equals("2.5.29.31")) {
+                // DistributionPoint ::= SEQUENCE { distributionPoint [0] { fullName [0] GeneralNames } }
+                if (value[field] != (byte) 0xA0) {
+                    continue;
+                }
+                field = Der.contentOffset(value, field);
+                if (value[field] != (byte) 0xA0) {
+                    continue;
+                }
+                field = Der.contentOffset(value, field);
+            } else {
+                // AccessDescription ::= SEQUENCE { accessMethod OBJECT IDENTIFIER, accessLocation GeneralName }
+                if (!Arrays.equals(Der.element(value, field), Der.oid(OCSP))) {
+                    continue;
+                }
+                field = Der.next(value, field);
+            }
+            if (value[field] == (byte) 0x86) {
+                return new String(Der.content(value, field), StandardCharsets.US_ASCII);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.tamal.java;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+public class RevocationCacheTest {
+
+    private final KeyPairPool keys = new KeyPairPool("RSA", 2048, 3);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private RevocationResponder responder;
+    private X509Certificate root;
+    private KeyPair intermediateKey;
+    private X509Certificate intermediate;
+    private Set<TrustAnchor> anchors;
+
+    @BeforeClass
+    void init() throws IOException, GeneralSecurityException {
+        responder = new RevocationResponder();
+        KeyPair rootKey = keys.get(2);
+        root = new CertificateBuilder("CN=Root CA", rootKey).ca(-1).selfSign();
+        intermediateKey = keys.get(1);
+        intermediate = new CertificateBuilder("CN=Intermediate", intermediateKey).ca(-1).authorityKeyIdentifier()
+                .crlDistributionPoint(responder.crlUri(root)).signBy(root, rootKey.getPrivate());
+        responder.ca(root, rootKey.getPrivate()).ca(intermediate, intermediateKey.getPrivate());
+        anchors = Collections.singleton(new TrustAnchor(root, null));
+    }
+
+    @AfterClass
+    void close() {
+        responder.close();
+        executor.shutdown();
+    }
+
+    private X509Certificate server(String name) throws GeneralSecurityException {
+        return new CertificateBuilder("CN=" + name, keys.get(0)).server(name).authorityKeyIdentifier()
+                .ocspResponder(responder.ocspUri()).signBy(intermediate, intermediateKey.getPrivate());
+    }
+
+    @Test
+    public void testCachedUntilNextUpdate() throws GeneralSecurityException {
+        List<X509Certificate> chain = Arrays.asList(server("cached"), intermediate);
+        RevocationCache cache = new RevocationCache(executor);
+        cache.prefetch(chain, anchors).join();
+        assertEquals(cache.getFetches(), 2);
+        for (int i = 0; i < 100; i++) {
+            // a new validator every time, so that it does not cache the result itself
+            new CertificateValidator(executor).revocation(cache).validate(chain, anchors);
+        }
+        assertEquals(cache.getFetches(), 2);
+    }
+
+    @Test
+    public void testRevoked() throws GeneralSecurityException {
+        X509Certificate server = server("revoked");
+        List<X509Certificate> chain = Arrays.asList(server, intermediate);
+        RevocationCache cache = new RevocationCache(executor);
+        new CertificateValidator(executor).revocation(cache).validate(chain, anchors);
+        responder.revoke(server);
+        // still good until the next update of the cached response
+        new CertificateValidator(executor).revocation(cache).validate(chain, anchors);
+
+        RevocationCache fresh = new RevocationCache(executor);
+        try {
+            new CertificateValidator(executor).revocation(fresh).validate(chain, anchors);
+            fail("Revoked certificate accepted");
+        } catch (CertPathValidatorException e) {
+            assertEquals(e.getReason(), CertPathValidatorException.BasicReason.REVOKED);
+            assertEquals(e.getIndex(), 0);
+        }
+    }
+
+    @Test
+    public void testExpiredResponse() throws GeneralSecurityException, InterruptedException {
+        X509Certificate server = server("expired");
+        List<X509Certificate> chain = Arrays.asList(server, intermediate);
+        try {
+            RevocationCache cache = new RevocationCache(executor).refreshAhead(0);
+            responder.validity(1_000);
+            new CertificateValidator(executor).revocation(cache).validate(chain, anchors);
+            int fetches = cache.getFetches();
+            Thread.sleep(1_100);
+            new CertificateValidator(executor).revocation(cache).validate(chain, anchors);
+            assertEquals(cache.getFetches(), fetches + 2);
+        } finally {
+            responder.validity(TimeUnit.HOURS.toMillis(1));
+        }
+    }
+
+    @Test(expectedExceptions = CertPathValidatorException.class)
+    public void testUnavailable() throws IOException, GeneralSecurityException {
+        RevocationResponder down = new RevocationResponder();
+        X509Certificate server = new CertificateBuilder("CN=down", keys.get(0)).server("down")
+                .ocspResponder(down.ocspUri()).signBy(intermediate, intermediateKey.getPrivate());
+        down.close();
+        RevocationCache cache = new RevocationCache(executor).timeout(1_000);
+        try {
+            new CertificateValidator(executor).revocation(cache).validate(Arrays.asList(server, intermediate), anchors);
+        } catch (CertPathValidatorException e) {
+            assertEquals(e.getReason(), CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+            throw e;
+        }
+    }
+
+}
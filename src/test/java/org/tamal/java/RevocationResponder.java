@@ -0,0 +1,203 @@
+package org.tamal.java;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for the CRL distribution points and the OCSP responder of test CAs. Every CA publishes its CRL at
+ * {@link #crlUri(X509Certificate)} and answers OCSP requests at {@link #ocspUri()}, signing both with its own key.
+ * Responses are generated on request, valid for {@link #validity(long)}, and reflect {@link #revoke} immediately.
+ */
+public class RevocationResponder implements Closeable {
+
+    private static final String SHA256_WITH_RSA = "1.2.840.113549.1.1.11";
+    private static final String OCSP_BASIC = "1.3.6.1.5.5.7.48.1.1";
+
+    private final HttpServer server;
+    private final Map<String, X509Certificate> cas = new ConcurrentHashMap<>();
+    private final Map<String, PrivateKey> keys = new ConcurrentHashMap<>();
+    private final Map<BigInteger, Date> revoked = new ConcurrentHashMap<>();
+    private final AtomicInteger crlRequests = new AtomicInteger();
+    private final AtomicInteger ocspRequests = new AtomicInteger();
+    private volatile long validity = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Starts the responder on an ephemeral port of the loopback address.
+     * @throws IOException if the server cannot be started
+     */
+    public RevocationResponder() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/crl/", exchange -> handle(exchange, this::crl));
+        server.createContext("/ocsp", exchange -> handle(exchange, this::ocsp));
+        server.start();
+    }
+
+    /**
+     * Registers a CA.
+     * @param ca the CA certificate
+     * @param key the private key of the CA
+     * @return this responder
+     * @throws GeneralSecurityException if the key identifier of the CA cannot be computed
+     */
+    public RevocationResponder ca(X509Certificate ca, PrivateKey key) throws GeneralSecurityException {
+        String keyId = keyId(CertificateBuilder.keyIdentifier(ca.getPublicKey()));
+        cas.put(keyId, ca);
+        keys.put(keyId, key);
+        return this;
+    }
+
+    /**
+     * @param validity the time between this update and next update of the responses
+     * @return this responder
+     */
+    public RevocationResponder validity(long validity) {
+        this.validity = validity;
+        return this;
+    }
+
+    public void revoke(X509Certificate certificate) {
+        revoked.put(certificate.getSerialNumber(), new Date());
+    }
+
+    /**
+     * @param ca a registered CA
+     * @return the URI of the CRL of the CA
+     * @throws GeneralSecurityException if the key identifier of the CA cannot be computed
+     */
+    public String crlUri(X509Certificate ca) throws GeneralSecurityException {
+        return base() + "/crl/" + keyId(CertificateBuilder.keyIdentifier(ca.getPublicKey()));
+    }
+
+    public String ocspUri() {
+        return base() + "/ocsp";
+    }
+
+    public int getCrlRequests() {
+        return crlRequests.get();
+    }
+
+    public int getOcspRequests() {
+        return ocspRequests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private String base() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    private interface Handler {
+        byte[] handle(HttpExchange exchange) throws IOException, GeneralSecurityException;
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            byte[] response = handler.handle(exchange);
+            if (response == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] crl(HttpExchange exchange) throws GeneralSecurityException {
+        crlRequests.incrementAndGet();
+        String path = exchange.getRequestURI().getPath();
+        String keyId = path.substring(path.lastIndexOf('/') + 1);
+        X509Certificate ca = cas.get(keyId);
+        if (ca == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        CrlBuilder crl = new CrlBuilder(ca, keys.get(keyId)).update(new Date(now), new Date(now + validity));
+        for (Map.Entry<BigInteger, Date> entry : revoked.entrySet()) {
+            crl.revoke(entry.getKey(), entry.getValue());
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/pkix-crl");
+        return crl.build().getEncoded();
+    }
+
+    private byte[] ocsp(HttpExchange exchange) throws IOException, GeneralSecurityException {
+        ocspRequests.incrementAndGet();
+        byte[] request = read(exchange.getRequestBody());
+        // OCSPRequest ::= SEQUENCE { tbsRequest TBSRequest, ... }
+        // TBSRequest ::= SEQUENCE { version [0] OPTIONAL, requestorName [1] OPTIONAL, requestList SEQUENCE OF Request }
+        int field = Der.contentOffset(request, Der.contentOffset(request, 0));
+        while (request[field] != Der.SEQUENCE) {
+            field = Der.next(request, field);
+        }
+        // Request ::= SEQUENCE { reqCert CertID, ... }
+        int certId = Der.contentOffset(request, Der.contentOffset(request, field));
+        // CertID ::= SEQUENCE { hashAlgorithm, issuerNameHash OCTET STRING, issuerKeyHash OCTET STRING, serialNumber }
+        int keyHash = Der.next(request, Der.next(request, Der.contentOffset(request, certId)));
+        String keyId = keyId(Der.content(request, keyHash));
+        BigInteger serial = new BigInteger(Der.content(request, Der.next(request, keyHash)));
+        X509Certificate ca = cas.get(keyId);
+        if (ca == null) {
+            // unauthorized
+            return Der.sequence(Der.tlv(Der.ENUMERATED, new byte[] { 6 }));
+        }
+        long now = System.currentTimeMillis();
+        Date revocation = revoked.get(serial);
+        // CertStatus ::= CHOICE { good [0] IMPLICIT NULL, revoked [1] IMPLICIT RevokedInfo, unknown [2] }
+        byte[] status = revocation == null ? Der.tlv(0x80) : Der.explicit(1, Der.generalizedTime(revocation));
+        byte[] single = Der.sequence(Der.element(request, certId), status, Der.generalizedTime(new Date(now)),
+                Der.explicit(0, Der.generalizedTime(new Date(now + validity))));
+        // ResponseData ::= SEQUENCE { responderID byKey [2], producedAt, responses SEQUENCE OF SingleResponse }
+        byte[] data = Der.sequence(Der.explicit(2, Der.octetString(Der.content(request, keyHash))),
+                Der.generalizedTime(new Date(now)), Der.sequence(single));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.get(keyId));
+        signature.update(data);
+        byte[] basic = Der.sequence(data, Der.sequence(Der.oid(SHA256_WITH_RSA), Der.nul()),
+                Der.bitString(signature.sign()));
+        exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+        return Der.sequence(Der.tlv(Der.ENUMERATED, new byte[] { 0 }),
+                Der.explicit(0, Der.sequence(Der.oid(OCSP_BASIC), Der.octetString(basic))));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String keyId(byte[] keyIdentifier) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(keyIdentifier);
+    }
+
+}
@@ -6,12 +6,17 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -134,6 +139,55 @@ public class ThreadTest {
 		notify();
 	}
 
+	/**
+	 * This test demonstrates the same alternation as {@link #testWaitNotify()} with a {@link Handoff}, which does not
+	 * need a monitor.
+	 * @throws InterruptedException should never happen
+	 */
+	@Test
+	public void testHandoff() throws InterruptedException {
+		x = 0;
+		Handoff handoff = new Handoff(0);
+		Thread t1 = new Thread(() -> incrementHandoff(handoff));
+		Thread t2 = new Thread(() -> decrementHandoff(handoff));
+		long start = System.nanoTime();
+		t1.start();
+		t2.start();
+		t1.join();
+		t2.join();
+		long elapsed = System.nanoTime() - start;
+		System.out.println("handoffs per second: " + 2L * ITERATIONS * 1_000_000_000L / elapsed);
+		assertEquals(x, 0);
+	}
+
+	private void incrementHandoff(Handoff handoff) {
+		for (int i = 0; i < ITERATIONS; i++) {
+			try {
+				handoff.await(0);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				return;
+			}
+			assertEquals(x, 0);
+			x++;
+			handoff.pass(1);
+		}
+	}
+
+	private void decrementHandoff(Handoff handoff) {
+		for (int i = 0; i < ITERATIONS; i++) {
+			try {
+				handoff.await(1);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				return;
+			}
+			assertEquals(x, 1);
+			x--;
+			handoff.pass(0);
+		}
+	}
+
 	/**
 	 * This test demonstrates the use of {@link Thread#interrupt()}, {@link Thread#isInterrupted()} and {@link InterruptedException}.
 	 */
@@ -237,6 +291,125 @@ public class ThreadTest {
 		}
 	}
 
+	/**
+	 * This test demonstrates that acquiring locks in a global order with {@link MultiLock} avoids the deadlock of
+	 * {@link #testDeadLock()} without the retries of {@link #testReentrantLock()}.
+	 * @throws InterruptedException should never happen
+	 */
+	@Test
+	public void testMultiLock() throws InterruptedException {
+		Person[] persons = new Person[8];
+		for (int i = 0; i < persons.length; i++) {
+			persons[i] = new Person();
+		}
+		Thread[] threads = new Thread[4 * Runtime.getRuntime().availableProcessors()];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < ITERATIONS; i++) {
+					Person p1 = persons[random.nextInt(persons.length)];
+					Person p2 = persons[random.nextInt(persons.length)];
+					if (i % 2 == 0) {
+						p1.addFriendOrdered(p2);
+					} else {
+						assertTrue(p1.addFriendOrdered(p2, 1, TimeUnit.SECONDS));
+					}
+				}
+			});
+			threads[t].start();
+		}
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		for (Thread t : threads) {
+			while (t.isAlive()) {
+				// other tests may leave deadlocked threads behind
+				long[] tids = bean.findDeadlockedThreads();
+				if (tids != null) {
+					for (Thread thread : threads) {
+						for (long tid : tids) {
+							assertNotEquals(tid, thread.getId());
+						}
+					}
+				}
+				t.join(10);
+			}
+		}
+		for (Person p1 : persons) {
+			assertFalse(p1.lock.isLocked());
+			for (Person p2 : p1.friends) {
+				assertTrue(p2.friends.contains(p1));
+			}
+		}
+	}
+
+	/**
+	 * This test demonstrates that a {@link DeadlockMonitor} reports the deadlock of {@link #testDeadLock()} while it
+	 * happens, and the lock which blocks threads the longest.
+	 * @throws InterruptedException should never happen
+	 */
+	@Test
+	public void testDeadlockMonitor() throws InterruptedException {
+		CountDownLatch contention = new CountDownLatch(1);
+		// other tests may leave deadlocked threads behind
+		Set<Long> deadlocked = ConcurrentHashMap.newKeySet();
+		DeadlockMonitor.Listener listener = new DeadlockMonitor.Listener() {
+			@Override
+			public void deadlock(ThreadInfo[] threads) {
+				for (ThreadInfo thread : threads) {
+					System.out.println(thread);
+					deadlocked.add(thread.getThreadId());
+				}
+			}
+
+			@Override
+			public void contention(List<DeadlockMonitor.Contention> contentions) {
+				DeadlockMonitor.Contention top = contentions.get(0);
+				if (top.getLock().equals(syncLock.getClass().getName() + '@'
+						+ Integer.toHexString(System.identityHashCode(syncLock))) && top.getBlockedTime() > 0) {
+					System.out.println(top);
+					contention.countDown();
+				}
+			}
+		};
+		try (DeadlockMonitor monitor = new DeadlockMonitor(listener).interval(10).start()) {
+			Thread holder = new Thread(() -> {
+				synchronized (syncLock) {
+					sleep(200);
+				}
+			}, "holder");
+			Thread blocked = new Thread(() -> {
+				synchronized (syncLock) {
+					x = 0;
+				}
+			}, "blocked");
+			holder.start();
+			holder.join(50);
+			blocked.start();
+			assertTrue(contention.await(5, TimeUnit.SECONDS));
+			blocked.join();
+
+			// unlike the monitors of testDeadLock(), locks acquired interruptibly let the deadlock be resolved
+			Person p1 = new Person();
+			Person p2 = new Person();
+			Thread t1 = new Thread(() -> p1.addFriendInterruptibly(p2, 100));
+			Thread t2 = new Thread(() -> p2.addFriendInterruptibly(p1, 100));
+			t1.start();
+			t2.start();
+			for (int i = 0; i < 500 && !deadlocked.contains(t1.getId()); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(deadlocked.contains(t1.getId()));
+			assertTrue(deadlocked.contains(t2.getId()));
+			t1.interrupt();
+			t1.join();
+			t2.join();
+			assertTrue(p2.friends.contains(p1));
+			System.out.printf("deadlock monitor overhead: %.4f%%, interval: %d ms%n", 100 * monitor.getOverhead(),
+					monitor.getInterval());
+			// a sample of a cold monitor costs more than 1% of 10 ms, so it samples less often
+			assertTrue(monitor.getOverhead() < 0.01 || monitor.getInterval() > 10);
+		}
+	}
+
 	private static class Person {
 
 		private final ReentrantLock lock;
@@ -268,6 +441,52 @@ public class ThreadTest {
 			assertFalse(Thread.holdsLock(this));
 		}
 
+		public void addFriendOrdered(Person friend) {
+			MultiLock lock = MultiLock.lock(this.lock, friend.lock);
+			try {
+				assertTrue(this.lock.isHeldByCurrentThread());
+				assertTrue(friend.lock.isHeldByCurrentThread());
+				this.friends.add(friend);
+				friend.friends.add(this);
+			} finally {
+				lock.close();
+			}
+		}
+
+		public boolean addFriendOrdered(Person friend, long timeout, TimeUnit unit) {
+			try (MultiLock lock = MultiLock.tryLock(timeout, unit, this.lock, friend.lock)) {
+				if (lock == null) {
+					return false;
+				}
+				this.friends.add(friend);
+				friend.friends.add(this);
+				return true;
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+
+		public void addFriendInterruptibly(Person friend, int timeout) {
+			try {
+				this.lock.lockInterruptibly();
+				try {
+					Thread.sleep(timeout);
+					friend.lock.lockInterruptibly();
+					try {
+						this.friends.add(friend);
+						friend.friends.add(this);
+					} finally {
+						friend.lock.unlock();
+					}
+				} finally {
+					this.lock.unlock();
+				}
+			} catch (InterruptedException e) {
+				System.out.println(Thread.currentThread().getName() + " gave up");
+			}
+		}
+
 		public void addFriendReentrant(Person friend, int timeout) {
 			boolean meLocked = this.lock.tryLock();
 			try {
@@ -0,0 +1,212 @@
+package org.tamal.vsphere;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limiter. Samples are evaluated in windows of about {@code limit} completions: the limit is
+ * increased additively while the window is healthy and decreased multiplicatively when the timeout rate exceeds
+ * {@link #maxTimeoutRate(double)} or the mean latency exceeds {@link #tolerance(double)} times the baseline latency
+ * (the latency of an unloaded network). The baseline is the lowest window latency seen so far, but drifts up towards
+ * higher window latencies by {@link #decay(double)} per window, so that a single unusually fast window does not pin
+ * it. Fast failures, such as refused connections, are counted separately and never taken as latency samples.
+ */
+public class AdaptiveLimiter {
+
+    private static final int MIN_WINDOW = 16;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double maxTimeoutRate = 0.5;
+    private double tolerance = 2.0;
+    private double backoff = 0.7;
+    private double decay = 0.05;
+    private long minLatency = Long.MAX_VALUE;
+    private int samples;
+    private int timeouts;
+    private int failures;
+    private long totalFailures;
+    private long latencies;
+    private int peakInFlight;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid limits: " + minLimit + " <= " + initialLimit + " <= "
+                    + maxLimit);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public AdaptiveLimiter maxTimeoutRate(double maxTimeoutRate) {
+        this.maxTimeoutRate = maxTimeoutRate;
+        return this;
+    }
+
+    public AdaptiveLimiter tolerance(double tolerance) {
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    public AdaptiveLimiter backoff(double backoff) {
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * @param decay the fraction of the distance to a higher window latency the baseline moves per window
+     * @return this limiter
+     */
+    public AdaptiveLimiter decay(double decay) {
+        this.decay = decay;
+        return this;
+    }
+
+    /**
+     * Waits until the number of in-flight tasks is below the current limit and takes a permit.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                available.await();
+            }
+            inFlight++;
+            peakInFlight = Math.max(peakInFlight, inFlight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a permit and records the outcome of the task.
+     * @param latencyNanos the observed latency, e.g. of connect, handshake and login
+     * @param timedOut true if the task timed out, which is taken as a sign of congestion
+     */
+    public void release(long latencyNanos, boolean timedOut) {
+        lock.lock();
+        try {
+            inFlight--;
+            samples++;
+            if (timedOut) {
+                timeouts++;
+            } else {
+                latencies += latencyNanos;
+            }
+            if (samples >= Math.max(MIN_WINDOW, (int) limit)) {
+                adjust();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a permit of a task which failed without a meaningful latency, e.g. a refused connection or an unreachable
+     * host. The failure counts towards the window but is neither a latency sample nor a sign of congestion.
+     */
+    public void fail() {
+        lock.lock();
+        try {
+            inFlight--;
+            samples++;
+            failures++;
+            totalFailures++;
+            if (samples >= Math.max(MIN_WINDOW, (int) limit)) {
+                adjust();
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a permit of a task which was not run, without recording a sample.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust() {
+        boolean congested = timeouts > (samples - failures) * maxTimeoutRate;
+        int completed = samples - timeouts - failures;
+        if (completed > 0) {
+            long latency = latencies / completed;
+            if (latency < minLatency) {
+                minLatency = latency;
+            } else {
+                congested |= latency > minLatency * tolerance;
+                minLatency += (long) ((latency - minLatency) * decay);
+            }
+        }
+        if (congested) {
+            limit = Math.max(minLimit, limit * backoff);
+        } else if (peakInFlight >= (int) limit) {
+            // only grow when the limit is actually reached, not while the producer is the bottleneck
+            limit = Math.min(maxLimit, limit + Math.sqrt(limit));
+        }
+        samples = 0;
+        timeouts = 0;
+        failures = 0;
+        latencies = 0;
+        peakInFlight = inFlight;
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of tasks which failed fast since the limiter was created
+     */
+    public long getFailures() {
+        lock.lock();
+        try {
+            return totalFailures;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            long latency = minLatency == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(minLatency);
+            return String.format("Limit: %d, In-flight: %d, Min latency: %d ms, Failures: %d", (int) limit, inFlight,
+                    latency, totalFailures);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
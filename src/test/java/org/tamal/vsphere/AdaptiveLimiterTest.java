@@ -0,0 +1,119 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class AdaptiveLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testIncreaseWhenHealthy() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 1, 100);
+        for (int window = 0; window < 3; window++) {
+            int limit = limiter.getLimit();
+            fill(limiter, limit);
+            assertEquals(limiter.getInFlight(), limit);
+            drain(limiter, limit, 10 * MS, false);
+            assertTrue(limiter.getLimit() > limit);
+        }
+    }
+
+    @Test
+    public void testDecreaseOnTimeouts() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(64, 8, 100);
+        fill(limiter, 64);
+        drain(limiter, 64, 20_000 * MS, true);
+        assertEquals(limiter.getLimit(), 44);
+        for (int i = 0; i < 10; i++) {
+            int limit = limiter.getLimit();
+            fill(limiter, limit);
+            drain(limiter, limit, 20_000 * MS, true);
+        }
+        assertEquals(limiter.getLimit(), 8);
+        assertEquals(limiter.getInFlight(), 0);
+    }
+
+    @Test
+    public void testDecreaseOnLatency() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 1, 100);
+        fill(limiter, 16);
+        drain(limiter, 16, 10 * MS, false);
+        int limit = limiter.getLimit();
+        fill(limiter, limit);
+        drain(limiter, limit, 50 * MS, false);
+        assertTrue(limiter.getLimit() < limit);
+    }
+
+    @Test
+    public void testFastFailures() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 1, 100);
+        // a window of refused connections is not a latency baseline
+        fill(limiter, 16);
+        for (int i = 0; i < 16; i++) {
+            limiter.fail();
+        }
+        assertEquals(limiter.getFailures(), 16);
+        fill(limiter, 16);
+        drain(limiter, 16, 10 * MS, false);
+        int limit = limiter.getLimit();
+        for (int window = 0; window < 3; window++) {
+            fill(limiter, limit);
+            drain(limiter, limit, 10 * MS, false);
+            assertTrue(limiter.getLimit() > limit);
+            limit = limiter.getLimit();
+        }
+    }
+
+    @Test
+    public void testBaselineDecays() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 1, 100).decay(0.5);
+        // one unusually fast window
+        fill(limiter, 16);
+        drain(limiter, 16, MS, false);
+        int limit = limiter.getLimit();
+        for (int window = 0; window < 10; window++) {
+            fill(limiter, limiter.getLimit());
+            drain(limiter, limiter.getLimit(), 10 * MS, false);
+        }
+        assertTrue(limiter.getLimit() > limit);
+    }
+
+    @Test
+    public void testBlocksAtLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 2);
+        fill(limiter, 2);
+        Thread t = new Thread(() -> {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        t.start();
+        t.join(100);
+        assertTrue(t.isAlive());
+        limiter.cancel();
+        t.join();
+        assertFalse(t.isAlive());
+        assertEquals(limiter.getInFlight(), 2);
+    }
+
+    private static void fill(AdaptiveLimiter limiter, int n) throws InterruptedException {
+        for (int i = 0; i < n; i++) {
+            limiter.acquire();
+        }
+    }
+
+    private static void drain(AdaptiveLimiter limiter, int n, long latency, boolean timedOut) {
+        for (int i = 0; i < n; i++) {
+            limiter.release(latency, timedOut);
+        }
+    }
+
+}
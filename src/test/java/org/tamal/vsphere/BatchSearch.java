@@ -0,0 +1,297 @@
+package org.tamal.vsphere;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches many VMs at once across the hosts of a range. Every host is logged in once, and the FindAllByDnsName or
+ * FindAllByIp requests of all the VMs not found yet are pipelined on the same connection, {@link #depth(int)} at a
+ * time, so that a batch costs one handshake and one round trip per window instead of a session per VM.
+ */
+public class BatchSearch {
+
+    private static final String NOT_FOUND = "Not Found";
+
+    private final SSLSocketFactory factory;
+    private final int timeoutMs;
+    private final SoapTemplate.Payload login;
+    private final SoapTemplate findDns;
+    private final SoapTemplate findIp;
+    private final Map<String, String> found = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> status = new ConcurrentHashMap<>();
+    private final Set<SSLSocket> sockets = ConcurrentHashMap.newKeySet();
+    private int port = 443;
+    private int threads = Runtime.getRuntime().availableProcessors() * 16;
+    private int depth = 32;
+    private volatile List<Query> pending;
+
+    private static class Query {
+
+        private final String vm;
+        private final SoapTemplate.Payload payload;
+        private final String response;
+
+        Query(String vm, SoapTemplate.Payload payload, String response) {
+            this.vm = vm;
+            this.payload = payload;
+            this.response = response;
+        }
+    }
+
+    /**
+     * @param factory the socket factory of the TLS connections
+     * @param timeoutMs the connect and read timeout
+     * @param login the Login request
+     * @param findDns the FindAllByDnsName template with a {@code dnsName} parameter
+     * @param findIp the FindAllByIp template with an {@code ip} parameter
+     */
+    public BatchSearch(SSLSocketFactory factory, int timeoutMs, SoapTemplate.Payload login, SoapTemplate findDns,
+            SoapTemplate findIp) {
+        this.factory = factory;
+        this.timeoutMs = timeoutMs;
+        this.login = login;
+        this.findDns = findDns;
+        this.findIp = findIp;
+    }
+
+    public BatchSearch port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public BatchSearch threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param depth the number of requests written before their responses are read
+     * @return this search
+     */
+    public BatchSearch depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * Searches the VMs on every host of the range, until all of them are found.
+     * @param range the hosts to search
+     * @param vms the DNS names or IP addresses of the VMs
+     * @return the IP address of the host of every VM found, by VM
+     * @throws InterruptedException if interrupted while waiting for the hosts
+     */
+    public Map<String, String> search(CidrRange range, Collection<String> vms) throws InterruptedException {
+        List<Query> queries = new ArrayList<>();
+        for (String vm : new LinkedHashSet<>(vms)) {
+            byte[] value = SoapTemplate.value(vm);
+            if (vm.matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+                queries.add(new Query(vm, findIp.bind(value), "FindAllByIpResponse"));
+            } else {
+                queries.add(new Query(vm, findDns.bind(value), "FindAllByDnsNameResponse"));
+            }
+        }
+        pending = queries;
+        ExecutorService exec = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "batch-search");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (PrimitiveIterator.OfInt ips = range.iterator(); ips.hasNext() && !isDone(); ) {
+                int address = ips.nextInt();
+                exec.execute(() -> {
+                    if (!isDone()) {
+                        scan(address);
+                    }
+                });
+            }
+            exec.shutdown();
+            while (!exec.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                if (isDone()) {
+                    abort(exec);
+                }
+            }
+        } catch (InterruptedException | RejectedExecutionException e) {
+            abort(exec);
+            throw e;
+        }
+        return new TreeMap<>(found);
+    }
+
+    private boolean isDone() {
+        return found.size() == pending.size();
+    }
+
+    private void abort(ExecutorService exec) {
+        exec.shutdownNow();
+        for (SSLSocket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored, the search is over
+            }
+        }
+    }
+
+    private void scan(int address) {
+        String ip = CidrRange.toString(address);
+        byte[] host = ip.getBytes(StandardCharsets.US_ASCII);
+        List<Query> queries = unresolved();
+        try {
+            while (!queries.isEmpty() && !isDone()) {
+                int answered = pipeline(address, host, queries);
+                if (answered < 0) {
+                    record(SdkScanner.LOGIN_FAILED, ip);
+                    return;
+                }
+                if (answered == 0 && !isDone()) {
+                    throw new EOFException("Connection closed by " + ip);
+                }
+                queries = queries.subList(answered, queries.size());
+            }
+            record(found.containsValue(ip) ? SdkScanner.FOUND : NOT_FOUND, ip);
+        } catch (IOException e) {
+            if (!isDone()) {
+                record(String.valueOf(e.getMessage()), ip);
+            }
+        }
+    }
+
+    /**
+     * Logs in to a host and pipelines the queries until all are answered or the host closes the connection.
+     * @return the number of answered queries, or -1 if the login failed
+     */
+    private int pipeline(int address, byte[] host, List<Query> queries) throws IOException {
+        SSLSocket socket = (SSLSocket) factory.createSocket();
+        sockets.add(socket);
+        try {
+            socket.connect(new InetSocketAddress(CidrRange.toInetAddress(address), port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            ResponseReader in = new ResponseReader(socket.getInputStream());
+
+            write(out, host, null, login);
+            HttpResponse response = in.read(new HttpResponse());
+            if (response.getStatus() != 200 || response.getSession() == null) {
+                return -1;
+            }
+            byte[] session = response.getSession().getBytes(StandardCharsets.US_ASCII);
+            boolean keepAlive = response.isKeepAlive();
+            int answered = 0;
+            try {
+                while (keepAlive && answered < queries.size() && !isDone()) {
+                    List<Query> window = queries.subList(answered, Math.min(queries.size(), answered + depth));
+                    write(out, host, session, window.stream().map(q -> q.payload)
+                            .toArray(SoapTemplate.Payload[]::new));
+                    for (Query query : window) {
+                        response = in.read(new HttpResponse(query.response));
+                        answered++;
+                        if (response.isFound()) {
+                            found.putIfAbsent(query.vm, CidrRange.toString(address));
+                        }
+                        if (!response.isKeepAlive()) {
+                            keepAlive = false;
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (answered == 0) {
+                    throw e;
+                }
+            }
+            // the unanswered queries are sent again on a new connection
+            return answered;
+        } finally {
+            sockets.remove(socket);
+            socket.close();
+        }
+    }
+
+    private static void write(OutputStream out, byte[] host, byte[] session, SoapTemplate.Payload... payloads)
+            throws IOException {
+        int size = 0;
+        for (SoapTemplate.Payload payload : payloads) {
+            size += SdkScanner.requestSize(host, payload, session);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (SoapTemplate.Payload payload : payloads) {
+            SdkScanner.putRequest(buffer, host, payload, session);
+        }
+        out.write(buffer.array(), 0, buffer.position());
+        out.flush();
+    }
+
+    private List<Query> unresolved() {
+        List<Query> queries = new ArrayList<>();
+        for (Query query : pending) {
+            if (!found.containsKey(query.vm)) {
+                queries.add(query);
+            }
+        }
+        return queries;
+    }
+
+    private void record(String outcome, String ip) {
+        status.computeIfAbsent(outcome, k -> new ConcurrentSkipListSet<>()).add(ip);
+    }
+
+    public Map<String, Set<String>> getStatus() {
+        return status;
+    }
+
+    /**
+     * Reads consecutive pipelined responses from a stream, keeping the bytes of the next response.
+     */
+    private static class ResponseReader {
+
+        private final InputStream in;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        ResponseReader(InputStream in) {
+            this.in = in;
+            buffer.limit(0);
+        }
+
+        HttpResponse read(HttpResponse response) throws IOException {
+            while (true) {
+                response.feed(buffer);
+                if (response.isComplete()) {
+                    return response;
+                }
+                buffer.clear();
+                int n = in.read(buffer.array());
+                if (n < 0) {
+                    if (response.isOpenEnded()) {
+                        return response;
+                    }
+                    throw new EOFException("Connection closed by server");
+                }
+                buffer.limit(n);
+            }
+        }
+    }
+
+}
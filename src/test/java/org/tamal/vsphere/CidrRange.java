@@ -0,0 +1,227 @@
+package org.tamal.vsphere;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Lazy range of IPv4 addresses held as primitive {@code int}s, in numeric order. Ranges can be split across workers
+ * and can exclude sub-ranges; an {@link InetAddress} or a dotted string is only created when an address is used.
+ */
+public class CidrRange {
+
+    private final int first;
+    private final long size;
+    /**
+     * Sorted, non-overlapping and non-adjacent excluded offsets as [from, to) pairs.
+     */
+    private final long[] excluded;
+
+    public CidrRange(int first, long size) {
+        this(first, size, new long[0]);
+    }
+
+    private CidrRange(int first, long size, long[] excluded) {
+        if (size < 0 || (first & 0xFFFFFFFFL) + size > 1L << 32) {
+            throw new IllegalArgumentException("Invalid range size: " + size);
+        }
+        this.first = first;
+        this.size = size;
+        this.excluded = excluded;
+    }
+
+    /**
+     * Creates the range of the subnet containing an address.
+     * @param address any IPv4 address of the subnet
+     * @param prefix the subnet prefix length, from 0 to 32
+     * @return the range of all the addresses of the subnet
+     */
+    public static CidrRange of(InetAddress address, int prefix) {
+        if (prefix < 0 || prefix > 32) {
+            throw new IllegalArgumentException("Invalid prefix: " + prefix);
+        }
+        int netmask = prefix == 0 ? 0 : 0xFFFFFFFF << 32 - prefix;
+        return new CidrRange(toInt(address) & netmask, 1L << 32 - prefix);
+    }
+
+    /**
+     * Parses a range in CIDR notation, e.g. {@code 10.20.0.0/22}. A single address is a /32.
+     * @param cidr the range
+     * @return the parsed range
+     * @throws UnknownHostException if the address is not a valid IPv4 literal
+     */
+    public static CidrRange parse(String cidr) throws UnknownHostException {
+        int slash = cidr.indexOf('/');
+        String address = slash < 0 ? cidr : cidr.substring(0, slash);
+        int prefix = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+        if (!address.matches("\\d{1,3}(\\.\\d{1,3}){3}")) {
+            throw new UnknownHostException(address);
+        }
+        return of(InetAddress.getByName(address), prefix);
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getLast() {
+        return (int) ((first & 0xFFFFFFFFL) + size - 1);
+    }
+
+    /**
+     * @return the number of addresses in the range, including the excluded ones
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of addresses the iterator returns
+     */
+    public long count() {
+        long count = size;
+        for (int i = 0; i < excluded.length; i += 2) {
+            count -= excluded[i + 1] - excluded[i];
+        }
+        return count;
+    }
+
+    public boolean contains(int address) {
+        long offset = offset(address);
+        if (offset < 0 || offset >= size) {
+            return false;
+        }
+        for (int i = 0; i < excluded.length && excluded[i] <= offset; i += 2) {
+            if (offset < excluded[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public CidrRange exclude(int address) {
+        return exclude(new CidrRange(address, 1));
+    }
+
+    /**
+     * @param other the addresses to skip
+     * @return a range which skips the addresses of the other range
+     */
+    public CidrRange exclude(CidrRange other) {
+        long from = Math.max(0, offset(other.first));
+        long to = Math.min(size, offset(other.first) + other.size);
+        if (from >= to) {
+            return this;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        for (int i = 0; i < excluded.length; i += 2) {
+            ranges.add(new long[] { excluded[i], excluded[i + 1] });
+        }
+        ranges.add(new long[] { from, to });
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+        long[] merged = new long[ranges.size() * 2];
+        int n = 0;
+        for (long[] range : ranges) {
+            if (n > 0 && range[0] <= merged[n - 1]) {
+                merged[n - 1] = Math.max(merged[n - 1], range[1]);
+            } else {
+                merged[n++] = range[0];
+                merged[n++] = range[1];
+            }
+        }
+        return new CidrRange(first, size, Arrays.copyOf(merged, n));
+    }
+
+    /**
+     * Splits the range into contiguous parts of nearly equal size, e.g. one per worker.
+     * @param parts the maximum number of parts
+     * @return the parts, fewer than requested if the range is smaller
+     */
+    public CidrRange[] split(int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("Invalid number of parts: " + parts);
+        }
+        long chunk = Math.max(1, (size + parts - 1) / parts);
+        List<CidrRange> result = new ArrayList<>();
+        for (long start = 0; start < size; start += chunk) {
+            long end = Math.min(size, start + chunk);
+            long[] clipped = new long[excluded.length];
+            int n = 0;
+            for (int i = 0; i < excluded.length; i += 2) {
+                long from = Math.max(start, excluded[i]);
+                long to = Math.min(end, excluded[i + 1]);
+                if (from < to) {
+                    clipped[n++] = from - start;
+                    clipped[n++] = to - start;
+                }
+            }
+            result.add(new CidrRange((int) ((first & 0xFFFFFFFFL) + start), end - start, Arrays.copyOf(clipped, n)));
+        }
+        return result.toArray(new CidrRange[0]);
+    }
+
+    /**
+     * @return iterator of the addresses in numeric order, skipping the excluded ones
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+
+            private long offset;
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                while (index < excluded.length && offset >= excluded[index]) {
+                    offset = Math.max(offset, excluded[index + 1]);
+                    index += 2;
+                }
+                return offset < size;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return (int) ((first & 0xFFFFFFFFL) + offset++);
+            }
+        };
+    }
+
+    private long offset(int address) {
+        return (address & 0xFFFFFFFFL) - (first & 0xFFFFFFFFL);
+    }
+
+    public static int toInt(InetAddress address) {
+        if (!(address instanceof Inet4Address)) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address);
+        }
+        byte[] b = address.getAddress();
+        return (b[0] & 0xFF) << 24 | (b[1] & 0xFF) << 16 | (b[2] & 0xFF) << 8 | b[3] & 0xFF;
+    }
+
+    public static InetAddress toInetAddress(int address) {
+        byte[] b = { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address };
+        try {
+            return InetAddress.getByAddress(b);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toString(int address) {
+        return (address >>> 24) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+    }
+
+    @Override
+    public String toString() {
+        return toString(first) + "-" + toString(getLast()) + (excluded.length == 0 ? "" : " excluding "
+                + excluded.length / 2 + " ranges");
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class CidrRangeTest {
+
+    @Test
+    public void testSubnet() throws UnknownHostException {
+        CidrRange range = CidrRange.of(InetAddress.getByName("192.168.130.77"), 22);
+        assertEquals(CidrRange.toString(range.getFirst()), "192.168.128.0");
+        assertEquals(CidrRange.toString(range.getLast()), "192.168.131.255");
+        assertEquals(range.size(), 1024);
+        List<String> ips = toList(range);
+        assertEquals(ips.size(), 1024);
+        assertEquals(ips.get(9), "192.168.128.9");
+        assertEquals(ips.get(10), "192.168.128.10");
+        assertEquals(ips.get(256), "192.168.129.0");
+    }
+
+    @Test
+    public void testWholeSpace() throws UnknownHostException {
+        CidrRange range = CidrRange.parse("0.0.0.0/0");
+        assertEquals(range.size(), 1L << 32);
+        assertEquals(CidrRange.toString(range.getLast()), "255.255.255.255");
+        assertEquals(range.split(4)[3].getFirst(), CidrRange.toInt(InetAddress.getByName("192.0.0.0")));
+    }
+
+    @Test
+    public void testExclude() throws UnknownHostException {
+        CidrRange range = CidrRange.parse("10.0.0.0/28")
+                .exclude(CidrRange.parse("10.0.0.4/30"))
+                .exclude(CidrRange.toInt(InetAddress.getByName("10.0.0.8")))
+                .exclude(CidrRange.parse("10.0.0.0/32"))
+                .exclude(CidrRange.parse("10.1.0.0/16"));
+        assertEquals(range.count(), 10);
+        assertFalse(range.contains(CidrRange.toInt(InetAddress.getByName("10.0.0.5"))));
+        assertTrue(range.contains(CidrRange.toInt(InetAddress.getByName("10.0.0.9"))));
+        assertEquals(toList(range).get(0), "10.0.0.1");
+        assertEquals(toList(range).get(3), "10.0.0.9");
+    }
+
+    @Test
+    public void testSplit() throws UnknownHostException {
+        CidrRange range = CidrRange.parse("172.16.0.0/24").exclude(CidrRange.parse("172.16.0.96/27"));
+        CidrRange[] parts = range.split(3);
+        assertEquals(parts.length, 3);
+        List<String> all = new ArrayList<>();
+        for (CidrRange part : parts) {
+            all.addAll(toList(part));
+        }
+        assertEquals(all, toList(range));
+        assertEquals(all.size(), 224);
+        assertEquals(CidrRange.parse("172.16.0.1").split(8).length, 1);
+    }
+
+    private static List<String> toList(CidrRange range) {
+        List<String> ips = new ArrayList<>();
+        for (PrimitiveIterator.OfInt it = range.iterator(); it.hasNext(); ) {
+            ips.add(CidrRange.toString(it.nextInt()));
+        }
+        return ips;
+    }
+
+}
@@ -0,0 +1,203 @@
+package org.tamal.vsphere;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental HTTP/1.1 response parser fed with the decrypted bytes of a non-blocking connection.
+ * It understands {@code Content-Length}, chunked and read-until-close bodies.
+ */
+class HttpResponse {
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private enum State { HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, COMPLETE }
+
+    private State state = State.HEADER;
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+    private final StringBuilder line = new StringBuilder();
+    private int status;
+    private String session;
+    private boolean keepAlive = true;
+    private boolean openEnded;
+    private long remaining;
+    private int last;
+    private SoapResponseClassifier classifier;
+
+    /**
+     * Creates a parser which discards the body.
+     */
+    HttpResponse() {
+    }
+
+    /**
+     * Creates a parser which classifies the body of a FindAllBy* response while it is streamed.
+     * @param element the response element name, e.g. {@code FindAllByIpResponse}
+     */
+    HttpResponse(String element) {
+        classifier = new SoapResponseClassifier(element);
+    }
+
+    void feed(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && state != State.COMPLETE) {
+            switch (state) {
+                case HEADER:
+                    byte b = buffer.get();
+                    header.write(b);
+                    if (header.size() > MAX_HEADER_SIZE) {
+                        throw new ProtocolException("HTTP header too large");
+                    }
+                    last = last << 8 | b & 0xFF;
+                    if (last == 0x0D0A0D0A) {
+                        parseHeader();
+                    }
+                    break;
+                case BODY:
+                case CHUNK_DATA:
+                    int n = openEnded ? buffer.remaining() : (int) Math.min(remaining, buffer.remaining());
+                    if (classifier != null && classifier.getResult() == SoapResponseClassifier.Result.UNDECIDED) {
+                        int limit = buffer.limit();
+                        int end = buffer.position() + n;
+                        buffer.limit(end);
+                        classifier.feed(buffer);
+                        buffer.limit(limit);
+                        buffer.position(end);
+                    } else {
+                        buffer.position(buffer.position() + n);
+                    }
+                    remaining -= n;
+                    if (!openEnded && remaining == 0) {
+                        state = state == State.BODY ? State.COMPLETE : State.CHUNK_END;
+                    }
+                    break;
+                default:
+                    char c = (char) buffer.get();
+                    if (c != '\n') {
+                        line.append(c);
+                        break;
+                    }
+                    String text = line.toString().trim();
+                    line.setLength(0);
+                    onLine(text);
+            }
+        }
+    }
+
+    private void onLine(String text) throws ProtocolException {
+        switch (state) {
+            case CHUNK_SIZE:
+                int semicolon = text.indexOf(';');
+                try {
+                    remaining = Long.parseLong(semicolon < 0 ? text : text.substring(0, semicolon), 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size");
+                }
+                state = remaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+                break;
+            case CHUNK_END:
+                state = State.CHUNK_SIZE;
+                break;
+            case TRAILER:
+                if (text.isEmpty()) {
+                    state = State.COMPLETE;
+                }
+                break;
+            default:
+                throw new IllegalStateException(state.name());
+        }
+    }
+
+    private void parseHeader() throws ProtocolException {
+        String[] lines = new String(header.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] statusLine = lines[0].split(" ", 3);
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+            throw new ProtocolException("Invalid status line");
+        }
+        try {
+            status = Integer.parseInt(statusLine[1]);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid status line");
+        }
+        keepAlive = !"HTTP/1.0".equals(statusLine[0]);
+        boolean chunked = false;
+        long contentLength = -1;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = Long.parseLong(value);
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                keepAlive = !"close".equalsIgnoreCase(value);
+            } else if ("Set-Cookie".equalsIgnoreCase(name)) {
+                for (HttpCookie cookie : HttpCookie.parse(lines[i])) {
+                    if ("vmware_soap_session".equals(cookie.getName())) {
+                        session = cookie.getValue();
+                    }
+                }
+            }
+        }
+        if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            remaining = contentLength;
+            state = contentLength == 0 ? State.COMPLETE : State.BODY;
+        } else {
+            openEnded = true;
+            keepAlive = false;
+            state = State.BODY;
+        }
+    }
+
+    /**
+     * Completes a body delimited by the end of the stream, and classifies it if it is still undecided.
+     */
+    void end() {
+        state = State.COMPLETE;
+        if (classifier != null) {
+            classifier.end();
+        }
+    }
+
+    boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * @return true if the body is delimited by the end of the stream
+     */
+    boolean isOpenEnded() {
+        return openEnded;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    String getSession() {
+        return session;
+    }
+
+    /**
+     * Checks whether a successful FindAllBy* response contains any managed object. The result is available as soon
+     * as the first child element of the response is streamed, before the response is complete.
+     * @return true if the response is not empty
+     */
+    boolean isFound() {
+        return status == 200 && classifier != null && classifier.getResult() == SoapResponseClassifier.Result.FOUND;
+    }
+
+}
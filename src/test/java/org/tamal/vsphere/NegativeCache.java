@@ -0,0 +1,230 @@
+package org.tamal.vsphere;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of the hosts which failed, so that repeated sweeps skip them until a TTL expires. Each /24 subnet
+ * holds one 256-bit set per {@link Failure} with the time it was started; a set is cleared once its TTL expires, so
+ * a host is skipped for at most the TTL and re-probed no later than that.
+ */
+public class NegativeCache {
+
+    public static final String SKIPPED = "Skipped by negative cache";
+
+    private static final int MAGIC = 0x4E434331;
+    private static final int WORDS = 256 / Long.SIZE;
+
+    private final Map<Integer, Subnet> subnets = new ConcurrentHashMap<>();
+    private final Map<Failure, Long> ttls = new EnumMap<>(Failure.class);
+
+    public enum Failure {
+        TIMEOUT, REFUSED, UNREACHABLE, HANDSHAKE, NOT_VCENTER;
+
+        /**
+         * Classifies only the failures which are known to repeat. Other errors, such as a connection reset in the
+         * middle of a response, may be transient even on a real vCenter and are not worth caching.
+         * @param e the failure of a host
+         * @return the failure class, or {@code null} if the failure should not be cached
+         */
+        public static Failure of(IOException e) {
+            if (e instanceof SocketTimeoutException) {
+                return TIMEOUT;
+            } else if (e instanceof ConnectException) {
+                return REFUSED;
+            } else if (e instanceof NoRouteToHostException) {
+                return UNREACHABLE;
+            } else if (e instanceof SSLHandshakeException) {
+                return HANDSHAKE;
+            } else if (e instanceof SdkSession.NotVcenterException) {
+                // the host answered, but not like a vCenter
+                return NOT_VCENTER;
+            }
+            return null;
+        }
+    }
+
+    private static class Subnet {
+
+        private final long[] started = new long[Failure.values().length];
+        private final long[] bits = new long[Failure.values().length * WORDS];
+
+        synchronized Failure get(int host, long now, Map<Failure, Long> ttls) {
+            for (Failure failure : Failure.values()) {
+                int i = failure.ordinal();
+                if (now - started[i] < ttls.get(failure) && (bits[i * WORDS + (host >>> 6)] & 1L << host) != 0) {
+                    return failure;
+                }
+            }
+            return null;
+        }
+
+        synchronized void add(int host, Failure failure, long now, long ttl) {
+            int i = failure.ordinal();
+            if (now - started[i] >= ttl) {
+                for (int w = 0; w < WORDS; w++) {
+                    bits[i * WORDS + w] = 0;
+                }
+                started[i] = now;
+            }
+            bits[i * WORDS + (host >>> 6)] |= 1L << host;
+        }
+
+        synchronized void remove(int host) {
+            for (int i = 0; i < started.length; i++) {
+                bits[i * WORDS + (host >>> 6)] &= ~(1L << host);
+            }
+        }
+
+        synchronized int count(long now, Map<Failure, Long> ttls) {
+            int count = 0;
+            for (Failure failure : Failure.values()) {
+                int i = failure.ordinal();
+                if (now - started[i] < ttls.get(failure)) {
+                    for (int w = 0; w < WORDS; w++) {
+                        count += Long.bitCount(bits[i * WORDS + w]);
+                    }
+                }
+            }
+            return count;
+        }
+
+    }
+
+    /**
+     * @param ttlMillis how long a failed host is skipped
+     */
+    public NegativeCache(long ttlMillis) {
+        for (Failure failure : Failure.values()) {
+            ttls.put(failure, ttlMillis);
+        }
+    }
+
+    /**
+     * Overrides the TTL of a failure class, e.g. to re-probe timeouts sooner than refused connections.
+     * @param failure the failure class
+     * @param ttlMillis how long a host which failed so is skipped
+     * @return this cache
+     */
+    public NegativeCache ttl(Failure failure, long ttlMillis) {
+        ttls.put(failure, ttlMillis);
+        return this;
+    }
+
+    /**
+     * @param address the IPv4 address of a host
+     * @return the unexpired failure of the host, or {@code null} if the host is not known to fail
+     */
+    public Failure get(int address) {
+        Subnet subnet = subnets.get(address >>> 8);
+        return subnet == null ? null : subnet.get(address & 0xFF, System.currentTimeMillis(), ttls);
+    }
+
+    public boolean contains(int address) {
+        return get(address) != null;
+    }
+
+    public void add(int address, Failure failure) {
+        subnets.computeIfAbsent(address >>> 8, k -> new Subnet())
+                .add(address & 0xFF, failure, System.currentTimeMillis(), ttls.get(failure));
+    }
+
+    /**
+     * Forgets the failures of a host, e.g. once it answered.
+     * @param address the IPv4 address of a host
+     */
+    public void remove(int address) {
+        Subnet subnet = subnets.get(address >>> 8);
+        if (subnet != null) {
+            subnet.remove(address & 0xFF);
+        }
+    }
+
+    /**
+     * @return the number of unexpired failed hosts
+     */
+    public int size() {
+        long now = System.currentTimeMillis();
+        return subnets.values().stream().mapToInt(subnet -> subnet.count(now, ttls)).sum();
+    }
+
+    /**
+     * Writes the unexpired sets to a file, atomically replacing it.
+     * @param file the cache file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            List<Map.Entry<Integer, Subnet>> entries = new ArrayList<>(subnets.entrySet());
+            out.writeInt(entries.size());
+            for (Map.Entry<Integer, Subnet> entry : entries) {
+                Subnet subnet = entry.getValue();
+                synchronized (subnet) {
+                    out.writeInt(entry.getKey());
+                    for (Failure failure : Failure.values()) {
+                        int i = failure.ordinal();
+                        boolean live = now - subnet.started[i] < ttls.get(failure);
+                        out.writeLong(live ? subnet.started[i] : 0);
+                        for (int w = 0; w < WORDS; w++) {
+                            out.writeLong(live ? subnet.bits[i * WORDS + w] : 0);
+                        }
+                    }
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the sets saved by a previous run; a missing file is an empty cache.
+     * @param file the cache file
+     * @return this cache
+     * @throws IOException if the file cannot be read or is not a cache file
+     */
+    public NegativeCache load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a negative cache file: " + file);
+            }
+            for (int n = in.readInt(); n > 0; n--) {
+                Subnet subnet = subnets.computeIfAbsent(in.readInt(), k -> new Subnet());
+                synchronized (subnet) {
+                    for (int i = 0; i < subnet.started.length; i++) {
+                        subnet.started[i] = in.readLong();
+                        for (int w = 0; w < WORDS; w++) {
+                            subnet.bits[i * WORDS + w] = in.readLong();
+                        }
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing cached yet
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Negative cache: %d hosts in %d subnets", size(), subnets.size());
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class NegativeCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void testClassify() {
+        assertEquals(NegativeCache.Failure.of(new SocketTimeoutException("connect timed out")),
+                NegativeCache.Failure.TIMEOUT);
+        assertEquals(NegativeCache.Failure.of(new ConnectException("Connection refused")),
+                NegativeCache.Failure.REFUSED);
+        assertEquals(NegativeCache.Failure.of(new NoRouteToHostException("No route to host")),
+                NegativeCache.Failure.UNREACHABLE);
+        assertEquals(NegativeCache.Failure.of(new SSLHandshakeException("Remote host closed connection")),
+                NegativeCache.Failure.HANDSHAKE);
+        assertEquals(NegativeCache.Failure.of(new SdkSession.NotVcenterException("Not a vCenter: HTTP 404 text/html")),
+                NegativeCache.Failure.NOT_VCENTER);
+        // transient errors of a real vCenter
+        assertNull(NegativeCache.Failure.of(new EOFException("Unexpected end of file from server")));
+        assertNull(NegativeCache.Failure.of(new SocketException("Connection reset")));
+        assertNull(NegativeCache.Failure.of(new SSLException("Connection reset")));
+    }
+
+    @Test
+    public void testBits() {
+        NegativeCache cache = new NegativeCache(HOUR);
+        int subnet = 0x0A140000;
+        for (int host : new int[] { 0, 63, 64, 255 }) {
+            cache.add(subnet | host, NegativeCache.Failure.REFUSED);
+        }
+        cache.add(subnet | 0x100, NegativeCache.Failure.TIMEOUT);
+        assertEquals(cache.size(), 5);
+        assertEquals(cache.get(subnet | 63), NegativeCache.Failure.REFUSED);
+        assertEquals(cache.get(subnet | 0x100), NegativeCache.Failure.TIMEOUT);
+        assertNull(cache.get(subnet | 1));
+        assertNull(cache.get(subnet | 0x101));
+        assertFalse(cache.contains(subnet | 62));
+        cache.remove(subnet | 64);
+        assertFalse(cache.contains(subnet | 64));
+        assertTrue(cache.contains(subnet | 255));
+    }
+
+    @Test
+    public void testTtl() {
+        NegativeCache cache = new NegativeCache(HOUR).ttl(NegativeCache.Failure.TIMEOUT, 0);
+        cache.add(1, NegativeCache.Failure.TIMEOUT);
+        cache.add(2, NegativeCache.Failure.REFUSED);
+        assertFalse(cache.contains(1));
+        assertTrue(cache.contains(2));
+        assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void testPersistence() throws IOException {
+        Path file = Files.createTempFile("negative", ".cache");
+        try {
+            NegativeCache cache = new NegativeCache(HOUR).ttl(NegativeCache.Failure.TIMEOUT, 0);
+            cache.add(0x7F000001, NegativeCache.Failure.HANDSHAKE);
+            cache.add(0xC0A80001, NegativeCache.Failure.NOT_VCENTER);
+            cache.add(0xC0A80002, NegativeCache.Failure.TIMEOUT);
+            cache.save(file);
+            NegativeCache loaded = new NegativeCache(HOUR).load(file);
+            assertEquals(loaded.size(), 2);
+            assertEquals(loaded.get(0x7F000001), NegativeCache.Failure.HANDSHAKE);
+            assertEquals(loaded.get(0xC0A80001), NegativeCache.Failure.NOT_VCENTER);
+            assertNull(loaded.get(0xC0A80002));
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(new NegativeCache(HOUR).load(file).size(), 0);
+    }
+
+}
@@ -0,0 +1,225 @@
+package org.tamal.vsphere;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Append-only, memory-mapped journal of the outcome of every scanned host, so that an interrupted sweep can resume
+ * where it stopped. The file starts with {@code magic (4), length (2), target (UTF-8)}, the sweep it belongs to, and
+ * continues with a record {@code time (8), address (4), length (2), outcome (UTF-8)} per outcome; the file grows in
+ * chunks of zeros and a zero time marks the end. The records land in the page cache as soon as they are appended,
+ * so they survive a crash of the JVM; {@link #close()} forces them to the disk.
+ */
+public class ProgressJournal implements Closeable {
+
+    private static final int CHUNK = 1 << 20;
+    private static final int MAGIC = 0x504A0002;
+    private static final int HEADER = Long.BYTES + Integer.BYTES + Short.BYTES;
+
+    private final FileChannel channel;
+    private final String target;
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> outcomes = new ConcurrentHashMap<>();
+    private MappedByteBuffer buffer;
+    private long position;
+
+    /**
+     * The last outcome of a host.
+     */
+    public static class Entry {
+
+        private final String outcome;
+        private final long time;
+
+        Entry(String outcome, long time) {
+            this.outcome = outcome;
+            this.time = time;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the time of the outcome in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return whether the host was scanned to the end, i.e. it answered and need not be scanned again
+         */
+        public boolean isComplete() {
+            return SdkScanner.FOUND.equals(outcome) || SdkScanner.NOT_FOUND_BY_IP.equals(outcome)
+                    || SdkScanner.LOGIN_FAILED.equals(outcome);
+        }
+
+        /**
+         * @return whether the host was interrupted between two phases, i.e. it must be scanned again regardless of the
+         *         TTL
+         */
+        public boolean isPartial() {
+            return SdkScanner.NOT_FOUND_BY_DNS.equals(outcome);
+        }
+
+    }
+
+    /**
+     * Opens a journal, replaying the records of an existing file of the same sweep. The outcomes of a host are only
+     * valid for the VM it was searched for, so a file of another sweep, or of an older format, is truncated.
+     * @param file the journal file, created if missing
+     * @param target identifies the sweep, e.g. the DNS name and IP address of the VM and the scanned range
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public ProgressJournal(Path file, String target) throws IOException {
+        byte[] bytes = target.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Target too long: " + target);
+        }
+        this.target = target;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + Short.BYTES + bytes.length);
+        header.putInt(MAGIC).putShort((short) bytes.length).put(bytes).flip();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        position = header.remaining();
+        if (header.equals(read(header.remaining()))) {
+            replay();
+        } else {
+            channel.truncate(0);
+            channel.write(header, 0);
+        }
+        buffer = map(position, CHUNK);
+    }
+
+    private ByteBuffer read(int size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) > 0) {
+            // until the buffer is full or the end of the file
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private void replay() throws IOException {
+        long size = channel.size();
+        if (size <= position) {
+            return;
+        }
+        MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, position, size - position);
+        while (existing.remaining() >= HEADER) {
+            long time = existing.getLong();
+            if (time == 0) {
+                break;
+            }
+            int address = existing.getInt();
+            int length = existing.getShort() & 0xFFFF;
+            if (existing.remaining() < length) {
+                // the file was truncated
+                break;
+            }
+            byte[] bytes = new byte[length];
+            existing.get(bytes);
+            entries.put(address, new Entry(intern(new String(bytes, StandardCharsets.UTF_8)), time));
+            position += HEADER + length;
+        }
+    }
+
+    private MappedByteBuffer map(long position, long size) throws IOException {
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        mappings.add(mapping);
+        return mapping;
+    }
+
+    /**
+     * @return the sweep which the journal belongs to
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Appends the outcome of a host.
+     * @param address the IPv4 address of the host
+     * @param outcome the outcome, e.g. {@link SdkScanner#FOUND} or an error message
+     * @throws IOException if the journal cannot grow
+     */
+    public void append(int address, String outcome) throws IOException {
+        String value = intern(String.valueOf(outcome));
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, Short.MAX_VALUE);
+        long time = System.currentTimeMillis();
+        synchronized (this) {
+            if (buffer.remaining() < HEADER + length) {
+                buffer = map(position, Math.max(CHUNK, HEADER + length));
+            }
+            // the time is written last, so that a reader never sees a partial record as complete
+            int start = buffer.position();
+            buffer.position(start + Long.BYTES);
+            buffer.putInt(address).putShort((short) length).put(bytes, 0, length);
+            buffer.putLong(start, time);
+            position += HEADER + length;
+        }
+        entries.put(address, new Entry(value, time));
+    }
+
+    private String intern(String outcome) {
+        // a sweep has a handful of distinct outcomes but a record per host
+        String existing = outcomes.putIfAbsent(outcome, outcome);
+        return existing == null ? outcome : existing;
+    }
+
+    /**
+     * @param address the IPv4 address of a host
+     * @return the last outcome of the host, or {@code null} if it was never scanned
+     */
+    public Entry get(int address) {
+        return entries.get(address);
+    }
+
+    /**
+     * Checks whether a host can be skipped: either it was scanned to the end, or it failed within the TTL. A host
+     * which is only part way through its scan is never skipped.
+     * @param address the IPv4 address of a host
+     * @param ttlMillis how long a failure stays valid
+     * @return whether the host need not be scanned again
+     */
+    public boolean isDone(int address, long ttlMillis) {
+        Entry entry = entries.get(address);
+        return entry != null && (entry.isComplete()
+                || !entry.isPartial() && System.currentTimeMillis() - entry.time < ttlMillis);
+    }
+
+    /**
+     * @param action called with the address and the last outcome of every journaled host
+     */
+    public void forEach(BiConsumer<Integer, Entry> action) {
+        entries.forEach(action);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // the records of a grown journal are spread over several mappings
+        for (MappedByteBuffer mapping : mappings) {
+            mapping.force();
+        }
+        channel.close();
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ProgressJournalTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final String TARGET = "vm.example.com 10.0.0.1 10.0.0.0-10.0.3.255";
+
+    @Test
+    public void testReplay() throws IOException {
+        Path file = Files.createTempFile("progress", ".journal");
+        try {
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                journal.append(1, SdkScanner.NOT_FOUND_BY_DNS);
+                journal.append(1, SdkScanner.NOT_FOUND_BY_IP);
+                journal.append(2, "connect timed out");
+                journal.append(3, SdkScanner.NOT_FOUND_BY_DNS);
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertEquals(journal.size(), 3);
+                assertEquals(journal.get(1).getOutcome(), SdkScanner.NOT_FOUND_BY_IP);
+                assertSame(journal.get(2).getOutcome(), journal.get(2).getOutcome());
+                assertNull(journal.get(4));
+                assertTrue(journal.isDone(1, 0));
+                assertTrue(journal.isDone(2, HOUR));
+                assertFalse(journal.isDone(2, 0));
+                assertFalse(journal.isDone(3, 0));
+                assertFalse(journal.isDone(4, HOUR));
+                journal.append(4, SdkScanner.FOUND);
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertEquals(journal.size(), 4);
+                assertTrue(journal.get(4).isComplete());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testGrowth() throws IOException {
+        Path file = Files.createTempFile("progress", ".journal");
+        try {
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                for (int address = 0; address < 65_536; address++) {
+                    journal.append(address, "Connection refused (Connection refused)");
+                }
+            }
+            assertTrue(Files.size(file) > 1 << 20);
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertEquals(journal.size(), 65_536);
+                assertEquals(journal.get(65_535).getOutcome(), "Connection refused (Connection refused)");
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testResumeAfterDnsPhase() throws IOException {
+        long ttl = TimeUnit.HOURS.toMillis(24);
+        Path file = Files.createTempFile("progress", ".journal");
+        try {
+            // the sweep was interrupted between the DNS search and the IP search of host 1
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                journal.append(1, SdkScanner.NOT_FOUND_BY_DNS);
+                journal.append(2, "connect timed out");
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertTrue(journal.get(1).isPartial());
+                assertFalse(journal.isDone(1, ttl));
+                assertTrue(journal.isDone(2, ttl));
+                journal.append(1, SdkScanner.NOT_FOUND_BY_IP);
+                assertTrue(journal.isDone(1, ttl));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testOtherTarget() throws IOException {
+        Path file = Files.createTempFile("progress", ".journal");
+        try {
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                journal.append(1, SdkScanner.NOT_FOUND_BY_IP);
+            }
+            // the host did not have the VM of the previous sweep, which says nothing about another VM
+            String other = "other.example.com 10.0.0.2 10.0.0.0-10.0.3.255";
+            try (ProgressJournal journal = new ProgressJournal(file, other)) {
+                assertEquals(journal.size(), 0);
+                assertFalse(journal.isDone(1, HOUR));
+                journal.append(2, SdkScanner.FOUND);
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertEquals(journal.size(), 0);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        Path file = Files.createTempFile("progress", ".journal");
+        try {
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                journal.append(1, SdkScanner.LOGIN_FAILED);
+            }
+            // a crash in the middle of an append, before the time of the record was written
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ByteBuffer torn = ByteBuffer.allocate(14);
+                torn.putLong(0).putInt(2).putShort((short) 1000).flip();
+                channel.write(torn, 6 + TARGET.length() + 14 + SdkScanner.LOGIN_FAILED.length());
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertEquals(journal.size(), 1);
+                journal.append(3, SdkScanner.FOUND);
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, TARGET)) {
+                assertEquals(journal.size(), 2);
+                assertEquals(journal.get(3).getOutcome(), SdkScanner.FOUND);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.tamal.vsphere;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Scanner metrics: striped counters per outcome and a latency histogram per phase of a host exchange, so that a
+ * sweep can be attributed to TCP, TLS or vCenter. The metrics can be printed periodically and exported over JMX.
+ */
+public class ScanMetrics implements ScanMetricsMXBean {
+
+    public enum Phase { CONNECT, HANDSHAKE, LOGIN, FIND_BY_DNS, FIND_BY_IP }
+
+    private final LongAdder scanned = new LongAdder();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+    private final long start = System.nanoTime();
+
+    public ScanMetrics() {
+        for (Phase phase : Phase.values()) {
+            latencies.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public void scanned() {
+        scanned.increment();
+    }
+
+    public void outcome(String outcome) {
+        outcomes.computeIfAbsent(outcome, k -> new LongAdder()).increment();
+    }
+
+    public void record(Phase phase, long nanos) {
+        latencies.get(phase).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public LatencyHistogram getLatency(Phase phase) {
+        return latencies.get(phase);
+    }
+
+    @Override
+    public long getScanned() {
+        return scanned.sum();
+    }
+
+    @Override
+    public Map<String, Long> getOutcomes() {
+        Map<String, Long> map = new TreeMap<>();
+        outcomes.forEach((k, v) -> map.put(k, v.sum()));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getCounts() {
+        return byPhase(LatencyHistogram::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getP50() {
+        return byPhase(h -> h.getValueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getP99() {
+        return byPhase(h -> h.getValueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getMax() {
+        return byPhase(LatencyHistogram::getMax);
+    }
+
+    private Map<String, Long> byPhase(ToLongFunction<LatencyHistogram> function) {
+        Map<String, Long> map = new TreeMap<>();
+        latencies.forEach((k, v) -> map.put(k.name(), function.applyAsLong(v)));
+        return map;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server as {@code org.tamal.vsphere:type=ScanMetrics,name=<name>}.
+     * @param name the name of the sweep
+     * @return the registered name
+     * @throws JMException if the registration fails
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("org.tamal.vsphere:type=ScanMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Prints the metrics periodically.
+     * @param scheduler the scheduler to run the report
+     * @param period the period between reports
+     * @param unit the unit of the period
+     * @param out the stream to print to
+     * @return the scheduled report, to be cancelled when the sweep is done
+     */
+    public ScheduledFuture<?> report(ScheduledExecutorService scheduler, long period, TimeUnit unit, PrintStream out) {
+        return scheduler.scheduleAtFixedRate(() -> out.print(this), period, period, unit);
+    }
+
+    @Override
+    public String toString() {
+        long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        StringBuilder text = new StringBuilder(String.format("%tr Scanned %d hosts, Rate: %d hosts/sec%n",
+                System.currentTimeMillis(), getScanned(), getScanned() * 1000 / elapsed));
+        getOutcomes().forEach((k, v) -> text.append(String.format("%s -> %d%n", k, v)));
+        latencies.forEach((k, v) -> text.append(String.format("%s (us): %s%n", k, v)));
+        return text.toString();
+    }
+
+}
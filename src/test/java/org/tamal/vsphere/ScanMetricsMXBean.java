@@ -0,0 +1,22 @@
+package org.tamal.vsphere;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ScanMetrics}. Latencies are in microseconds and keyed by phase.
+ */
+public interface ScanMetricsMXBean {
+
+    long getScanned();
+
+    Map<String, Long> getOutcomes();
+
+    Map<String, Long> getCounts();
+
+    Map<String, Long> getP50();
+
+    Map<String, Long> getP99();
+
+    Map<String, Long> getMax();
+
+}
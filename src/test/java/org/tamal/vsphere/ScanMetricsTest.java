@@ -0,0 +1,86 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ScanMetricsTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 1 << 20; value++) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highestValue(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.highestValue(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(histogram.getCount(), 10_000);
+        assertEquals(histogram.getMax(), 10_000);
+        assertEquals(histogram.getMean(), 5000.5, 0.001);
+        assertEquals(histogram.getValueAtPercentile(50), 5000, 5000 * 0.07);
+        assertEquals(histogram.getValueAtPercentile(99), 9900, 9900 * 0.07);
+        assertEquals(histogram.getValueAtPercentile(100), 10_000);
+        assertEquals(new LatencyHistogram().getValueAtPercentile(99), 0);
+    }
+
+    @Test
+    public void testConcurrentCounters() throws InterruptedException {
+        ScanMetrics metrics = new ScanMetrics();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    metrics.scanned();
+                    metrics.outcome(i % 2 == 0 ? SdkScanner.LOGIN_FAILED : "connect timed out");
+                    metrics.record(ScanMetrics.Phase.CONNECT, TimeUnit.MILLISECONDS.toNanos(i % 100));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(metrics.getScanned(), 40_000);
+        assertEquals(metrics.getOutcomes().get(SdkScanner.LOGIN_FAILED).longValue(), 20_000);
+        assertEquals(metrics.getCounts().get("CONNECT").longValue(), 40_000);
+        assertEquals(metrics.getMax().get("CONNECT").longValue(), 99_000);
+    }
+
+    @Test
+    public void testJmx() throws JMException {
+        ScanMetrics metrics = new ScanMetrics();
+        metrics.outcome(SdkScanner.FOUND);
+        metrics.record(ScanMetrics.Phase.HANDSHAKE, TimeUnit.MILLISECONDS.toNanos(3));
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            TabularData outcomes = (TabularData) server.getAttribute(name, "Outcomes");
+            CompositeData row = outcomes.get(new Object[] { SdkScanner.FOUND });
+            assertEquals(row.get("value"), 1L);
+            TabularData max = (TabularData) server.getAttribute(name, "Max");
+            assertEquals(max.get(new Object[] { "HANDSHAKE" }).get("value"), 3000L);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+}
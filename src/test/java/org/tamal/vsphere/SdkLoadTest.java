@@ -0,0 +1,279 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Runs both scanners against {@link StubSdkServer}. The stub listens on the first half of the scanned range and the
+ * other half refuses connections. Tune with {@code -Dstub.range}, {@code -Dstub.hosts}, {@code -Dstub.latency},
+ * {@code -Dstub.failureRate} and {@code -Dstub.payloadSize}.
+ */
+public class SdkLoadTest {
+
+    private static final int TIMEOUT_MS = 5_000;
+
+    private final HostnameVerifier verifier = (hostname, sslSession) -> true;
+    private SSLContext context;
+    private StubSdkServer server;
+    private CidrRange range;
+    private CidrRange hosts;
+    private String hit;
+    private int port;
+    private SoapTemplate.Payload login;
+    private SoapTemplate.Payload findDns;
+    private SoapTemplate.Payload findIp;
+
+    @BeforeClass
+    void init() throws IOException, GeneralSecurityException {
+        context = SSLContext.getInstance("TLS");
+        TrustManager trustManager = new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        context.init(null, new TrustManager[] { trustManager }, null);
+
+        range = CidrRange.parse(System.getProperty("stub.range", "127.1.0.0/26"));
+        hosts = CidrRange.parse(System.getProperty("stub.hosts", "127.1.0.0/27"));
+        hit = CidrRange.toString(hosts.getLast());
+        server = new StubSdkServer()
+                .latency(Integer.parseInt(System.getProperty("stub.latency", "5")))
+                .failureRate(Double.parseDouble(System.getProperty("stub.failureRate", "0.05")))
+                .payloadSize(Integer.parseInt(System.getProperty("stub.payloadSize", "4096")));
+        port = server.start(hosts, 0);
+
+        login = SoapTemplate.load("/login.xml").bind(SoapTemplate.value("root"), SoapTemplate.value("secret"));
+        findDns = SoapTemplate.load("/find-by-dns.xml").bind(SoapTemplate.value("vm.example.com"));
+        findIp = SoapTemplate.load("/find-by-ip.xml").bind(SoapTemplate.value("10.0.0.1"));
+    }
+
+    @AfterClass
+    void destroy() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testVmSearch() throws InterruptedException, ExecutionException {
+        server.hit(hit);
+        VmSearch search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns, findIp)
+                .port(port);
+        long start = System.nanoTime();
+        assertEquals(search.search(range).get(), hit);
+        report("VmSearch", start, search.getMetrics());
+    }
+
+    @Test
+    public void testVmSearchVirtualThreads() throws InterruptedException, ExecutionException {
+        server.hit(hit);
+        VmSearch search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns, findIp)
+                .port(port).virtualThreads(true);
+        long start = System.nanoTime();
+        assertEquals(search.search(range).get(), hit);
+        report(search.isVirtual() ? "VmSearch on virtual threads" : "VmSearch without virtual threads", start,
+                search.getMetrics());
+    }
+
+    @Test
+    public void testSdkScanner() throws InterruptedException, ExecutionException {
+        server.hit(hit);
+        ScanMetrics metrics = new ScanMetrics();
+        SdkScanner scanner = new SdkScanner(context, login, findDns, findIp).port(port).timeout(TIMEOUT_MS)
+                .metrics(metrics);
+        long start = System.nanoTime();
+        assertEquals(scanner.search(range, (ip, outcome) -> {}).get(), hit);
+        report("SdkScanner", start, metrics);
+    }
+
+    @Test
+    public void testFullSweep() throws InterruptedException, ExecutionException {
+        server.hit(null);
+        Map<String, Set<String>> status = new ConcurrentHashMap<>();
+        ScanMetrics metrics = new ScanMetrics();
+        SdkScanner scanner = new SdkScanner(context, login, findDns, findIp).port(port).timeout(TIMEOUT_MS)
+                .metrics(metrics);
+        long start = System.nanoTime();
+        assertNull(scanner.search(range, (ip, outcome) -> status.computeIfAbsent(outcome,
+                k -> new ConcurrentSkipListSet<>()).add(ip)).get());
+        assertEquals(metrics.getScanned(), range.count());
+        // a host reports NOT_FOUND_BY_DNS before its final outcome, every host must report at least once
+        assertEquals(status.values().stream().flatMap(Set::stream).distinct().count(), range.count());
+        report("Full sweep", start, metrics);
+    }
+
+    @Test
+    public void testConnectionClose() throws InterruptedException, ExecutionException {
+        server.connectionClose(true);
+        try {
+            testReconnect("Connection: close");
+        } finally {
+            server.connectionClose(false);
+        }
+    }
+
+    @Test
+    public void testOpenEnded() throws InterruptedException, ExecutionException {
+        server.openEnded(true);
+        try {
+            testReconnect("Read-until-close body");
+        } finally {
+            server.openEnded(false);
+        }
+    }
+
+    /**
+     * Sweeps with a new connection for every request, then searches the hit host.
+     */
+    private void testReconnect(String name) throws InterruptedException, ExecutionException {
+        server.hit(null).failureRate(0);
+        try {
+            Map<String, Set<String>> status = new ConcurrentHashMap<>();
+            ScanMetrics metrics = new ScanMetrics();
+            SdkScanner scanner = new SdkScanner(context, login, findDns, findIp).port(port).timeout(TIMEOUT_MS)
+                    .metrics(metrics);
+            long start = System.nanoTime();
+            assertNull(scanner.search(range, (ip, outcome) -> status.computeIfAbsent(outcome,
+                    k -> new ConcurrentSkipListSet<>()).add(ip)).get());
+            report(name, start, metrics);
+            assertEquals(status.get(SdkScanner.NOT_FOUND_BY_IP).size(), hosts.count());
+            server.hit(hit);
+            scanner = new SdkScanner(context, login, findDns, findIp).port(port).timeout(TIMEOUT_MS);
+            assertEquals(scanner.search(range, (ip, outcome) -> {}).get(), hit);
+        } finally {
+            server.failureRate(Double.parseDouble(System.getProperty("stub.failureRate", "0.05")));
+        }
+    }
+
+    @Test(expectedExceptions = SocketTimeoutException.class, timeOut = 10_000)
+    public void testUnresponsiveHost() throws IOException {
+        // accepts the connection, but never answers
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            URL url = new URL("https", silent.getInetAddress().getHostAddress(), silent.getLocalPort(), "/sdk/");
+            try (SdkSession session = new SdkSession(url, context.getSocketFactory(), verifier, 500)) {
+                session.login(login);
+            }
+        }
+    }
+
+    @Test
+    public void testProbe() throws InterruptedException, ExecutionException {
+        server.hit(hit);
+        TcpProbe probe = new TcpProbe().port(port).timeout(200);
+        VmSearch search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns, findIp)
+                .port(port).probe(probe);
+        long start = System.nanoTime();
+        assertEquals(search.search(range).get(), hit);
+        report("VmSearch with TCP probe", start, search.getMetrics());
+        // the probe is stopped when the first search completes, and still probes for the next one
+        search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns, findIp).port(port)
+                .probe(probe);
+        assertEquals(search.search(range).get(), hit);
+    }
+
+    @Test
+    public void testResume() throws IOException, InterruptedException, ExecutionException {
+        server.hit(null);
+        Path file = Files.createTempFile("sweep", ".journal");
+        String target = "vm.example.com 10.0.0.1 " + range;
+        try {
+            try (ProgressJournal journal = new ProgressJournal(file, target)) {
+                VmSearch search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns,
+                        findIp).port(port).journal(journal, TimeUnit.HOURS.toMillis(1));
+                assertNull(search.search(range).get());
+                assertEquals(journal.size(), range.count());
+            }
+            try (ProgressJournal journal = new ProgressJournal(file, target)) {
+                VmSearch search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns,
+                        findIp).port(port).journal(journal, TimeUnit.HOURS.toMillis(1));
+                assertNull(search.search(range).get());
+                assertEquals(search.getMetrics().getScanned(), 0);
+                assertEquals(search.getStatus().values().stream().mapToInt(Set::size).sum(), range.count());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testNegativeCache() throws InterruptedException, ExecutionException {
+        server.hit(null).failureRate(0);
+        NegativeCache cache = new NegativeCache(TimeUnit.HOURS.toMillis(1));
+        try {
+            VmSearch search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns, findIp)
+                    .port(port).negativeCache(cache);
+            assertNull(search.search(range).get());
+            long refused = range.count() - hosts.count();
+            assertEquals(cache.size(), refused);
+            search = new VmSearch(context.getSocketFactory(), verifier, TIMEOUT_MS, login, findDns, findIp)
+                    .port(port).negativeCache(cache);
+            assertNull(search.search(range).get());
+            assertEquals(search.getMetrics().getScanned(), hosts.count());
+            assertEquals(search.getStatus().get(NegativeCache.SKIPPED).size(), refused);
+        } finally {
+            server.failureRate(Double.parseDouble(System.getProperty("stub.failureRate", "0.05")));
+        }
+    }
+
+    @Test
+    public void testBatchSearch() throws IOException, InterruptedException {
+        server.hit(null);
+        List<String> vms = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            vms.add("vm" + i + ".example.com");
+        }
+        vms.add("10.0.0.7");
+        String first = CidrRange.toString(hosts.getFirst());
+        server.vm("vm7.example.com", first).vm("vm70.example.com", hit).vm("10.0.0.7", hit);
+        BatchSearch search = new BatchSearch(context.getSocketFactory(), TIMEOUT_MS, login,
+                SoapTemplate.load("/find-by-dns.xml"), SoapTemplate.load("/find-by-ip.xml")).port(port);
+        long start = System.nanoTime();
+        long requests = server.getRequests();
+        Map<String, String> found = search.search(range, vms);
+        System.err.printf("Batch search: %d VMs in %d ms, Requests: %d%n", vms.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), server.getRequests() - requests);
+        assertEquals(found.size(), 3);
+        assertEquals(found.get("vm7.example.com"), first);
+        assertEquals(found.get("vm70.example.com"), hit);
+        assertEquals(found.get("10.0.0.7"), hit);
+    }
+
+    private void report(String name, long start, ScanMetrics metrics) {
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        System.err.printf("%s: scanned %d hosts, Rate: %d hosts/sec, Requests: %d, Connections: %d%n%s", name,
+                metrics.getScanned(), metrics.getScanned() * 1_000_000_000L / elapsed, server.getRequests(),
+                server.getConnections(), metrics);
+    }
+
+}
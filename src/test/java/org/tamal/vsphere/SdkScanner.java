@@ -0,0 +1,550 @@
+package org.tamal.vsphere;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Non-blocking vSphere SDK scanner. A handful of selector threads drive the login and FindAllBy* exchanges of
+ * thousands of hosts concurrently using {@link SocketChannel} and {@link SSLEngine}. Each host is reported to the
+ * listener with the same outcome buckets used by {@link WebServiceTest}.
+ */
+public class SdkScanner {
+
+    public static final String FOUND = "Found";
+    public static final String LOGIN_FAILED = "Login failed";
+    public static final String NOT_FOUND_BY_DNS = "Not Found by DNS Name";
+    public static final String NOT_FOUND_BY_IP = "Not Found by IP Address";
+
+    private static final byte[] REQUEST = ascii("POST /sdk/ HTTP/1.1\r\nContent-Type: text/xml; charset=utf-8\r\nHost: ");
+    private static final byte[] CONTENT_LENGTH = ascii("\r\nContent-Length: ");
+    private static final byte[] COOKIE = ascii("\r\nCookie: vmware_soap_session='");
+    private static final byte[] COOKIE_END = ascii("'");
+    private static final byte[] HEADER_END = ascii("\r\n\r\n");
+
+    private final SSLContext context;
+    private final SoapTemplate.Payload login;
+    private final SoapTemplate.Payload findDns;
+    private final SoapTemplate.Payload findIp;
+    private int port = 443;
+    private int timeoutMs = 20_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxInFlight = 1024;
+    private ScanMetrics metrics = new ScanMetrics();
+    private final List<Selector> selectors = new ArrayList<>();
+    private volatile boolean stopped;
+
+    public SdkScanner(SSLContext context, SoapTemplate.Payload login, SoapTemplate.Payload findDns,
+            SoapTemplate.Payload findIp) {
+        this.context = context;
+        this.login = login;
+        this.findDns = findDns;
+        this.findIp = findIp;
+    }
+
+    public SdkScanner port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public SdkScanner timeout(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    public SdkScanner threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public SdkScanner maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public SdkScanner metrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Scans all the hosts and blocks until every host is classified or {@link #stop()} is called.
+     * @param range the IP addresses to scan, split evenly across the selector threads
+     * @param listener receives the IP address and the outcome of each step
+     * @throws IOException if a selector cannot be opened
+     * @throws InterruptedException if interrupted while waiting for the selector threads
+     */
+    public void scan(CidrRange range, BiConsumer<String, String> listener) throws IOException, InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        CidrRange[] parts = range.split(threads);
+        for (int i = 0; i < parts.length; i++) {
+            Worker worker = new Worker(Selector.open(), parts[i].iterator(), listener);
+            synchronized (selectors) {
+                selectors.add(worker.selector);
+            }
+            Thread thread = new Thread(worker, "sdk-scanner-" + i);
+            thread.start();
+            workers.add(thread);
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /**
+     * Scans in the background until the first host finds the VM. Completing or cancelling the returned future stops
+     * the scan and closes all the in-flight connections.
+     * @param range the IP addresses to scan
+     * @param listener receives the IP address and the outcome of each step
+     * @return the future IP address of the host which has the VM, or {@code null} if no host has it
+     */
+    public CompletableFuture<String> search(CidrRange range, BiConsumer<String, String> listener) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        result.whenComplete((ip, e) -> stop());
+        Thread thread = new Thread(() -> {
+            try {
+                scan(range, (ip, outcome) -> {
+                    if (FOUND.equals(outcome)) {
+                        result.complete(ip);
+                    }
+                    listener.accept(ip, outcome);
+                });
+                result.complete(null);
+            } catch (IOException | InterruptedException e) {
+                result.completeExceptionally(e);
+            }
+        }, "sdk-scanner");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    /**
+     * Stops the scan, closing all in-flight connections.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (selectors) {
+            selectors.forEach(Selector::wakeup);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final Selector selector;
+        private final PrimitiveIterator.OfInt ips;
+        private final BiConsumer<String, String> listener;
+        private int inFlight;
+
+        Worker(Selector selector, PrimitiveIterator.OfInt ips, BiConsumer<String, String> listener) {
+            this.selector = selector;
+            this.ips = ips;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    while (inFlight < maxInFlight && ips.hasNext()) {
+                        Exchange exchange = new Exchange(ips.nextInt(), this);
+                        inFlight++;
+                        try {
+                            exchange.connect();
+                        } catch (IOException e) {
+                            exchange.fail(e);
+                        }
+                    }
+                    if (inFlight == 0) {
+                        break;
+                    }
+                    selector.select(Math.min(timeoutMs, 100));
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Exchange exchange = (Exchange) key.attachment();
+                        try {
+                            exchange.onReady();
+                        } catch (IOException | RuntimeException e) {
+                            exchange.fail(e);
+                        }
+                    }
+                    long now = System.nanoTime();
+                    for (SelectionKey key : selector.keys()) {
+                        Exchange exchange = (Exchange) key.attachment();
+                        if (key.isValid() && now - exchange.deadline > 0) {
+                            String message = exchange.stage == Stage.CONNECT ? "connect timed out" : "Read timed out";
+                            exchange.fail(new SocketTimeoutException(message));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Selector failed: " + e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Exchange) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    System.err.println("Selector close failed: " + e);
+                }
+            }
+        }
+    }
+
+    private enum Stage { CONNECT, LOGIN, FIND_DNS, FIND_IP, DONE }
+
+    private class Exchange {
+
+        private final int address;
+        private final String ip;
+        private final Worker worker;
+        private Stage stage = Stage.CONNECT;
+        private Stage next = Stage.LOGIN;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private SSLEngine engine;
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        private ByteBuffer appIn;
+        private ByteBuffer appOut;
+        private HttpResponse response;
+        private byte[] host;
+        private byte[] session;
+        private long deadline;
+        private long phaseStart;
+        private boolean handshaking;
+        private boolean released;
+
+        Exchange(int address, Worker worker) {
+            this.address = address;
+            this.ip = CidrRange.toString(address);
+            this.worker = worker;
+            this.host = ascii(ip);
+            metrics.scanned();
+        }
+
+        void connect() throws IOException {
+            stage = Stage.CONNECT;
+            phaseStart = System.nanoTime();
+            deadline = phaseStart + timeoutMs * 1_000_000L;
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            key = channel.register(worker.selector, SelectionKey.OP_CONNECT, this);
+            engine = context.createSSLEngine(ip, port);
+            engine.setUseClientMode(true);
+            int packetSize = engine.getSession().getPacketBufferSize();
+            int appSize = engine.getSession().getApplicationBufferSize();
+            netIn = ByteBuffer.allocate(packetSize);
+            netOut = ByteBuffer.allocate(packetSize);
+            netOut.flip();
+            appIn = ByteBuffer.allocate(appSize);
+            if (channel.connect(new InetSocketAddress(CidrRange.toInetAddress(address), port))) {
+                onReady();
+            }
+        }
+
+        void onReady() throws IOException {
+            if (stage == Stage.CONNECT) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                long now = System.nanoTime();
+                metrics.record(ScanMetrics.Phase.CONNECT, now - phaseStart);
+                phaseStart = now;
+                handshaking = true;
+                engine.beginHandshake();
+                send(next);
+            }
+            // a response with Connection: close starts a new connection, which is driven once it is connected
+            while (key.isValid() && stage != Stage.CONNECT) {
+                if (!flush()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                switch (engine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        break;
+                    case NEED_WRAP:
+                        wrap();
+                        break;
+                    case NEED_UNWRAP:
+                        if (!unwrap()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                            return;
+                        }
+                        break;
+                    default:
+                        if (handshaking) {
+                            long now = System.nanoTime();
+                            metrics.record(ScanMetrics.Phase.HANDSHAKE, now - phaseStart);
+                            phaseStart = now;
+                            handshaking = false;
+                        }
+                        if (appOut.hasRemaining()) {
+                            wrap();
+                        } else if (!unwrap()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                            return;
+                        }
+                }
+            }
+        }
+
+        private boolean flush() throws IOException {
+            while (netOut.hasRemaining()) {
+                if (channel.write(netOut) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void wrap() throws IOException {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(appOut, netOut);
+            netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("SSL engine closed");
+            }
+        }
+
+        private boolean unwrap() throws IOException {
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            switch (result.getStatus()) {
+                case OK:
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        return read();
+                    }
+                    appIn.flip();
+                    response.feed(appIn);
+                    appIn.clear();
+                    if (response.isComplete() || response.isFound()) {
+                        onResponse();
+                    }
+                    return true;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    return read();
+                case BUFFER_OVERFLOW:
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    return true;
+                default:
+                    // close_notify ends a read-until-close body like the end of the stream does
+                    endOfStream("Connection closed");
+                    return true;
+            }
+        }
+
+        private boolean read() throws IOException {
+            int n = channel.read(netIn);
+            if (n < 0) {
+                endOfStream("Unexpected end of stream");
+                return true;
+            }
+            return n > 0;
+        }
+
+        /**
+         * Completes a response whose body is delimited by the end of the stream. The outcome names are fixed, the
+         * listener gets the IP address separately, so that the outcome buckets stay bounded.
+         */
+        private void endOfStream(String outcome) throws IOException {
+            if (!response.isOpenEnded()) {
+                throw new EOFException(outcome);
+            }
+            response.end();
+            onResponse();
+        }
+
+        private void onResponse() throws IOException {
+            long elapsed = System.nanoTime() - phaseStart;
+            switch (stage) {
+                case LOGIN:
+                    metrics.record(ScanMetrics.Phase.LOGIN, elapsed);
+                    String cookie = response.getStatus() == 200 ? response.getSession() : null;
+                    if (cookie == null) {
+                        finish(LOGIN_FAILED);
+                        return;
+                    }
+                    session = ascii(cookie);
+                    next(Stage.FIND_DNS);
+                    return;
+                case FIND_DNS:
+                    metrics.record(ScanMetrics.Phase.FIND_BY_DNS, elapsed);
+                    if (response.isFound()) {
+                        finish(FOUND);
+                        return;
+                    }
+                    report(NOT_FOUND_BY_DNS);
+                    next(Stage.FIND_IP);
+                    return;
+                case FIND_IP:
+                    metrics.record(ScanMetrics.Phase.FIND_BY_IP, elapsed);
+                    finish(response.isFound() ? FOUND : NOT_FOUND_BY_IP);
+                    return;
+                default:
+                    throw new IllegalStateException(stage.name());
+            }
+        }
+
+        private void next(Stage stage) throws IOException {
+            if (response.isKeepAlive()) {
+                send(stage);
+            } else {
+                close();
+                next = stage;
+                connect();
+            }
+        }
+
+        private void send(Stage stage) {
+            this.stage = stage;
+            long now = System.nanoTime();
+            deadline = now + timeoutMs * 1_000_000L;
+            if (!handshaking) {
+                phaseStart = now;
+            }
+            SoapTemplate.Payload body;
+            switch (stage) {
+                case LOGIN:
+                    body = login;
+                    response = new HttpResponse();
+                    break;
+                case FIND_DNS:
+                    body = findDns;
+                    response = new HttpResponse("FindAllByDnsNameResponse");
+                    break;
+                default:
+                    body = findIp;
+                    response = new HttpResponse("FindAllByIpResponse");
+            }
+            int size = requestSize(host, body, session);
+            if (appOut == null || appOut.capacity() < size) {
+                appOut = ByteBuffer.allocate(size);
+            }
+            appOut.clear();
+            putRequest(appOut, host, body, session);
+            appOut.flip();
+        }
+
+        private void finish(String outcome) {
+            stage = Stage.DONE;
+            release();
+            report(outcome);
+        }
+
+        void fail(Exception e) {
+            release();
+            String message = e.getMessage();
+            report(message == null ? e.toString() : message);
+        }
+
+        private void report(String outcome) {
+            metrics.outcome(outcome);
+            worker.listener.accept(ip, outcome);
+        }
+
+        private void release() {
+            close();
+            if (!released) {
+                released = true;
+                worker.inFlight--;
+            }
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignored, the channel is discarded anyway
+                }
+            }
+        }
+    }
+
+    static int requestSize(byte[] host, SoapTemplate.Payload body, byte[] session) {
+        int size = REQUEST.length + host.length + CONTENT_LENGTH.length + 10 + HEADER_END.length + body.length();
+        if (session != null) {
+            size += COOKIE.length + session.length + COOKIE_END.length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes a POST /sdk/ request.
+     * @param out the buffer, with at least {@link #requestSize} bytes remaining
+     * @param host the value of the Host header
+     * @param body the SOAP request
+     * @param session the session cookie value, or {@code null} before login
+     */
+    static void putRequest(ByteBuffer out, byte[] host, SoapTemplate.Payload body, byte[] session) {
+        out.put(REQUEST).put(host).put(CONTENT_LENGTH);
+        putDecimal(out, body.length());
+        if (session != null) {
+            out.put(COOKIE).put(session).put(COOKIE_END);
+        }
+        out.put(HEADER_END);
+        body.writeTo(out);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int size) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() + size);
+        buffer.flip();
+        return bigger.put(buffer);
+    }
+
+}
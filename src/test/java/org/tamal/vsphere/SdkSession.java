@@ -0,0 +1,261 @@
+package org.tamal.vsphere;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpCookie;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Blocking vSphere SDK session of a single host. All the requests share one keep-alive connection, so the TLS
+ * handshake happens once per host; a response is read completely whenever the connection is reused.
+ * TLS sessions are resumed across hosts through the client session cache of the shared {@link SSLSocketFactory}.
+ */
+public class SdkSession implements Closeable {
+
+    private final URL url;
+    private final SSLSocketFactory factory;
+    private final HostnameVerifier verifier;
+    private final int timeoutMs;
+    private final byte[] buffer = new byte[8192];
+    private ScanMetrics metrics;
+    private TimingSocketFactory timing;
+    private long requestStart;
+    private volatile HttpsURLConnection connection;
+    private volatile boolean closed;
+    private String cookie;
+
+    public SdkSession(URL url, SSLSocketFactory factory, HostnameVerifier verifier, int timeoutMs) {
+        this.url = url;
+        this.factory = factory;
+        this.verifier = verifier;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Records the connect, handshake and login latencies of the session.
+     * @param metrics the metrics of the sweep
+     * @return this session
+     */
+    public SdkSession metrics(ScanMetrics metrics) {
+        this.metrics = metrics;
+        this.timing = new TimingSocketFactory(factory);
+        return this;
+    }
+
+    /**
+     * Logs in and remembers the {@code vmware_soap_session} cookie for the subsequent requests.
+     * @param payload the Login request
+     * @return true if the login succeeded
+     * @throws NotVcenterException if the host answered, but not with a SOAP response
+     * @throws IOException if the request fails
+     */
+    public boolean login(SoapTemplate.Payload payload) throws IOException {
+        int code = post(payload);
+        drain();
+        String type = connection.getContentType();
+        if (type == null || !type.contains("xml")) {
+            // a SOAP endpoint answers with a response or a fault, both in XML, whether the login succeeds or not
+            throw new NotVcenterException("Not a vCenter: HTTP " + code + " " + type);
+        }
+        if (metrics != null) {
+            metrics.record(ScanMetrics.Phase.LOGIN, System.nanoTime() - requestStart);
+        }
+        String setCookie = connection.getHeaderField("Set-Cookie");
+        if (code == 200 && setCookie != null) {
+            List<HttpCookie> cookies = HttpCookie.parse(setCookie);
+            for (HttpCookie httpCookie : cookies) {
+                if ("vmware_soap_session".equals(httpCookie.getName())) {
+                    cookie = "vmware_soap_session='" + httpCookie.getValue() + "'";
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs a FindAllBy* search in the logged in session.
+     * @param payload the FindAllByDnsName or FindAllByIp request
+     * @param response the response element name, e.g. {@code FindAllByIpResponse}
+     * @return true if any managed object is found
+     * @throws IOException if the request fails
+     */
+    public boolean find(SoapTemplate.Payload payload, String response) throws IOException {
+        int code = post(payload);
+        if (code != 200) {
+            drain();
+            return false;
+        }
+        SoapResponseClassifier classifier = new SoapResponseClassifier(response);
+        InputStream stream = connection.getInputStream();
+        int n;
+        while ((n = stream.read(buffer)) > 0) {
+            if (classifier.feed(buffer, 0, n) != SoapResponseClassifier.Result.UNDECIDED) {
+                break;
+            }
+        }
+        if (classifier.end() == SoapResponseClassifier.Result.FOUND) {
+            // the rest of the response is not needed and the host will not be queried again
+            connection.disconnect();
+            return true;
+        }
+        // only the end of the envelope is left to read before the connection can be reused
+        drain();
+        return false;
+    }
+
+    public boolean isLoggedIn() {
+        return cookie != null;
+    }
+
+    private int post(SoapTemplate.Payload payload) throws IOException {
+        checkClosed();
+        long begin = System.nanoTime();
+        connection = (HttpsURLConnection) url.openConnection();
+        // a close() which read the previous connection has set closed before this check
+        checkClosed();
+        connection.setSSLSocketFactory(timing == null ? factory : timing);
+        connection.setHostnameVerifier(verifier);
+        connection.setConnectTimeout(timeoutMs);
+        // a host which accepts the connection but never answers must not block the sweep
+        connection.setReadTimeout(timeoutMs);
+        if (cookie != null) {
+            connection.addRequestProperty("Cookie", cookie);
+        }
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(payload.length());
+        try {
+            connection.connect();
+        } catch (SSLException e) {
+            if (e.getCause() instanceof SocketTimeoutException) {
+                // a read timeout during the handshake is a timeout like any other
+                throw (SocketTimeoutException) e.getCause();
+            }
+            throw e;
+        }
+        // disconnecting a connection which is not connected yet has no effect, so a close() during connect is only
+        // noticed now
+        checkClosed();
+        requestStart = System.nanoTime();
+        if (timing != null && timing.layeredAt - begin > 0) {
+            // a new connection, not one reused from the keep-alive cache
+            metrics.record(ScanMetrics.Phase.CONNECT, timing.layeredAt - begin);
+            metrics.record(ScanMetrics.Phase.HANDSHAKE, requestStart - timing.layeredAt);
+        }
+        payload.writeTo(connection.getOutputStream());
+        return connection.getResponseCode();
+    }
+
+    private void checkClosed() throws SocketException {
+        if (closed) {
+            HttpsURLConnection current = connection;
+            if (current != null) {
+                current.disconnect();
+            }
+            throw new SocketException("Session closed");
+        }
+    }
+
+    /**
+     * Reads the remaining response so that the connection is returned to the keep-alive cache.
+     */
+    private void drain() throws IOException {
+        InputStream stream = connection.getResponseCode() < 400 ? connection.getInputStream()
+                : connection.getErrorStream();
+        if (stream == null) {
+            return;
+        }
+        try (InputStream in = stream) {
+            while (in.read(buffer) > 0) {
+                // discard
+            }
+        }
+    }
+
+    /**
+     * Closes the underlying connection instead of leaving it idle in the keep-alive cache. It may be called from
+     * another thread to abort a blocked request, which then fails with a {@link SocketException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        HttpsURLConnection current = connection;
+        if (current != null) {
+            current.disconnect();
+        }
+    }
+
+    /**
+     * Signals that a host answered HTTP, but is not a vSphere SDK endpoint.
+     */
+    public static class NotVcenterException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public NotVcenterException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Notes when the TCP connection is established. Unconnected sockets are deliberately not supported, so that
+     * {@link HttpsURLConnection} connects a plain socket first and then layers TLS over it.
+     */
+    private static class TimingSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+        private volatile long layeredAt;
+
+        TimingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            layeredAt = System.nanoTime();
+            return delegate.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.tamal.vsphere;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Streaming classifier of FindAllBy* responses. It scans the raw bytes for the response element and decides as soon
+ * as the first child element (found) or the closing tag (empty) is seen, without buffering the payload.
+ * A response without the element, e.g. a SOAP fault, is classified as empty at the end of the stream.
+ */
+class SoapResponseClassifier {
+
+    enum Result { UNDECIDED, FOUND, EMPTY }
+
+    private enum State { SEARCH, NAME_END, TAG, QUOTE, SELF_CLOSE, CONTENT, CHILD }
+
+    private static final Map<String, byte[]> TAGS = new ConcurrentHashMap<>();
+
+    private final byte[] tag;
+    private State state = State.SEARCH;
+    private Result result = Result.UNDECIDED;
+    private int matched;
+    private byte quote;
+
+    /**
+     * @param element the response element name, e.g. {@code FindAllByIpResponse}
+     */
+    SoapResponseClassifier(String element) {
+        tag = TAGS.computeIfAbsent(element, k -> ('<' + k).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    Result feed(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length && result == Result.UNDECIDED; i++) {
+            feed(bytes[i]);
+        }
+        return result;
+    }
+
+    Result feed(ByteBuffer buffer) {
+        while (buffer.hasRemaining() && result == Result.UNDECIDED) {
+            feed(buffer.get());
+        }
+        return result;
+    }
+
+    /**
+     * Marks the end of the response.
+     * @return the final result, which is never {@link Result#UNDECIDED}
+     */
+    Result end() {
+        if (result == Result.UNDECIDED) {
+            result = Result.EMPTY;
+        }
+        return result;
+    }
+
+    Result getResult() {
+        return result;
+    }
+
+    private void feed(byte b) {
+        switch (state) {
+            case SEARCH:
+                if (b == tag[matched]) {
+                    if (++matched == tag.length) {
+                        state = State.NAME_END;
+                    }
+                } else {
+                    matched = b == tag[0] ? 1 : 0;
+                }
+                break;
+            case NAME_END:
+                if (b == '>') {
+                    state = State.CONTENT;
+                } else if (b == '/') {
+                    state = State.SELF_CLOSE;
+                } else if (isWhitespace(b)) {
+                    state = State.TAG;
+                } else {
+                    // a longer element name which only shares the prefix
+                    matched = b == tag[0] ? 1 : 0;
+                    state = State.SEARCH;
+                }
+                break;
+            case TAG:
+                if (b == '"' || b == '\'') {
+                    quote = b;
+                    state = State.QUOTE;
+                } else if (b == '/') {
+                    state = State.SELF_CLOSE;
+                } else if (b == '>') {
+                    state = State.CONTENT;
+                }
+                break;
+            case QUOTE:
+                if (b == quote) {
+                    state = State.TAG;
+                }
+                break;
+            case SELF_CLOSE:
+                if (b == '>') {
+                    result = Result.EMPTY;
+                } else {
+                    state = State.TAG;
+                }
+                break;
+            case CONTENT:
+                if (b == '<') {
+                    state = State.CHILD;
+                } else if (!isWhitespace(b)) {
+                    result = Result.FOUND;
+                }
+                break;
+            case CHILD:
+                result = b == '/' ? Result.EMPTY : Result.FOUND;
+                break;
+            default:
+                throw new IllegalStateException(state.name());
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+}
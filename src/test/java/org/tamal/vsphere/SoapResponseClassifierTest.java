@@ -0,0 +1,65 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.tamal.vsphere.SoapResponseClassifier.Result.EMPTY;
+import static org.tamal.vsphere.SoapResponseClassifier.Result.FOUND;
+import static org.tamal.vsphere.SoapResponseClassifier.Result.UNDECIDED;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SoapResponseClassifierTest {
+
+    private static final String ENVELOPE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>%s"
+            + "</soapenv:Body></soapenv:Envelope>";
+
+    @Test
+    public void testEmptyResponse() {
+        assertEquals(classify("<FindAllByIpResponse xmlns=\"urn:vim25\"></FindAllByIpResponse>"), EMPTY);
+        assertEquals(classify("<FindAllByIpResponse xmlns=\"urn:vim25\">\n  </FindAllByIpResponse>"), EMPTY);
+        assertEquals(classify("<FindAllByIpResponse xmlns=\"urn:vim25\"/>"), EMPTY);
+    }
+
+    @Test
+    public void testFoundResponse() {
+        String payload = "<FindAllByIpResponse xmlns=\"urn:vim25\"><returnval type=\"VirtualMachine\">vm-42"
+                + "</returnval></FindAllByIpResponse>";
+        assertEquals(classify(payload), FOUND);
+    }
+
+    @Test
+    public void testFault() {
+        assertEquals(classify("<soapenv:Fault><faultstring>NotAuthenticated</faultstring></soapenv:Fault>"), EMPTY);
+    }
+
+    @Test
+    public void testLongerElementName() {
+        String payload = "<FindAllByIpResponseX><a/></FindAllByIpResponseX>"
+                + "<FindAllByIpResponse xmlns=\"urn:vim25\"></FindAllByIpResponse>";
+        assertEquals(classify(payload), EMPTY);
+    }
+
+    @Test
+    public void testDecidesBeforeEnd() {
+        byte[] bytes = String.format(ENVELOPE, "<FindAllByIpResponse xmlns=\"urn:vim25\"><returnval>vm-1</returnval>"
+                + "</FindAllByIpResponse>").getBytes(StandardCharsets.UTF_8);
+        SoapResponseClassifier classifier = new SoapResponseClassifier("FindAllByIpResponse");
+        int i = 0;
+        while (classifier.feed(bytes, i, 1) == UNDECIDED) {
+            i++;
+        }
+        assertEquals(classifier.getResult(), FOUND);
+        assertTrue(new String(bytes, 0, i + 1, StandardCharsets.UTF_8).endsWith("<r"));
+    }
+
+    private static SoapResponseClassifier.Result classify(String body) {
+        byte[] bytes = String.format(ENVELOPE, body).getBytes(StandardCharsets.UTF_8);
+        SoapResponseClassifier classifier = new SoapResponseClassifier("FindAllByIpResponse");
+        classifier.feed(bytes, 0, bytes.length);
+        return classifier.end();
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.tamal.vsphere;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SOAP request template with {@code ${name}} placeholders. The template is parsed once into byte segments, and a
+ * {@link Payload} binds pre-encoded values to the placeholders so that requests are written straight into the
+ * connection buffer or stream without building strings.
+ */
+public class SoapTemplate {
+
+    private final byte[][] segments;
+    private final int[] slots;
+    private final String[] names;
+
+    private SoapTemplate(byte[][] segments, int[] slots, String[] names) {
+        this.segments = segments;
+        this.slots = slots;
+        this.names = names;
+    }
+
+    /**
+     * Loads and parses a template from the class path.
+     * @param resource the absolute resource name, e.g. {@code /login.xml}
+     * @return the parsed template
+     * @throws IOException if the resource cannot be read
+     */
+    public static SoapTemplate load(String resource) throws IOException {
+        try (InputStream stream = SoapTemplate.class.getResourceAsStream(resource)) {
+            if (stream == null) {
+                throw new FileNotFoundException(resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = stream.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return parse(out.toByteArray());
+        }
+    }
+
+    static SoapTemplate parse(byte[] bytes) {
+        List<byte[]> segments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length - 1; i++) {
+            if (bytes[i] != '$' || bytes[i + 1] != '{') {
+                continue;
+            }
+            int end = i + 2;
+            while (end < bytes.length && bytes[end] != '}') {
+                end++;
+            }
+            if (end == bytes.length) {
+                break;
+            }
+            String name = new String(bytes, i + 2, end - i - 2, StandardCharsets.UTF_8);
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+            segments.add(Arrays.copyOfRange(bytes, start, i));
+            slots.add(names.indexOf(name));
+            start = end + 1;
+            i = end;
+        }
+        segments.add(Arrays.copyOfRange(bytes, start, bytes.length));
+        return new SoapTemplate(segments.toArray(new byte[0][]), slots.stream().mapToInt(Integer::intValue).toArray(),
+                names.toArray(new String[0]));
+    }
+
+    /**
+     * @return the distinct placeholder names in the order expected by {@link #bind(byte[]...)}
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * Binds the placeholder values.
+     * @param values the encoded values in the order of {@link #getNames()}, see {@link #value(String)}
+     * @return the request payload
+     */
+    public Payload bind(byte[]... values) {
+        if (values.length != names.length) {
+            throw new IllegalArgumentException("Expected values for " + Arrays.toString(names));
+        }
+        return new Payload(values);
+    }
+
+    /**
+     * Encodes a placeholder value as XML character data.
+     * @param value the raw value
+     * @return the escaped UTF-8 bytes
+     */
+    public static byte[] value(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                case '\'':
+                    escaped.append("&apos;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A template with bound values.
+     */
+    public class Payload {
+
+        private final byte[][] values;
+        private final int length;
+
+        private Payload(byte[][] values) {
+            this.values = values;
+            int n = 0;
+            for (byte[] segment : segments) {
+                n += segment.length;
+            }
+            for (int slot : slots) {
+                n += values[slot].length;
+            }
+            this.length = n;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < slots.length; i++) {
+                buffer.put(segments[i]).put(values[slots[i]]);
+            }
+            buffer.put(segments[slots.length]);
+        }
+
+        public void writeTo(OutputStream stream) throws IOException {
+            for (int i = 0; i < slots.length; i++) {
+                stream.write(segments[i]);
+                stream.write(values[slots[i]]);
+            }
+            stream.write(segments[slots.length]);
+        }
+
+        public byte[] toByteArray() {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            writeTo(buffer);
+            return buffer.array();
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+
+public class SoapTemplateTest {
+
+    @Test
+    public void testLogin() throws IOException {
+        SoapTemplate template = SoapTemplate.load("/login.xml");
+        assertEquals(template.getNames(), new String[] { "username", "password" });
+        SoapTemplate.Payload payload = template.bind(SoapTemplate.value("root"), SoapTemplate.value("ca$h<c0w>"));
+        String xml = new String(payload.toByteArray(), StandardCharsets.UTF_8);
+        assertEquals(payload.length(), xml.length());
+        assertEquals(xml, "<?xml version=\"1.0\" ?><S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                + "<S:Body><Login xmlns=\"urn:vim25\"><_this type=\"SessionManager\">ha-sessionmgr</_this>"
+                + "<userName>root</userName><password>ca$h&lt;c0w&gt;</password></Login></S:Body></S:Envelope>");
+    }
+
+    @Test
+    public void testRepeatedPlaceholder() throws IOException {
+        SoapTemplate template = SoapTemplate.parse("${a}-${b}-${a}$".getBytes(StandardCharsets.UTF_8));
+        assertEquals(template.getNames(), new String[] { "a", "b" });
+        SoapTemplate.Payload payload = template.bind(SoapTemplate.value("x"), SoapTemplate.value("yy"));
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length());
+        payload.writeTo(buffer);
+        assertEquals(buffer.remaining(), 0);
+        assertEquals(new String(buffer.array(), StandardCharsets.UTF_8), "x-yy-x$");
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        payload.writeTo(stream);
+        assertEquals(stream.toByteArray(), buffer.array());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMissingValue() throws IOException {
+        SoapTemplate.load("/find-by-ip.xml").bind();
+    }
+
+}
@@ -0,0 +1,340 @@
+package org.tamal.vsphere;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process stand-in for the vSphere SDK endpoint, used to load-test the scanners offline. It listens on every
+ * loopback address of a range, so the other addresses of a subnet refuse connections like dead hosts do, and
+ * answers Login, FindAllByDnsName and FindAllByIp on keep-alive connections. The hit host finds the VM, every
+ * other host returns empty results.
+ */
+public class StubSdkServer implements Closeable {
+
+    private static final String ENVELOPE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><soapenv:Envelope "
+            + "xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\"><soapenv:Body>%s%s</soapenv:Body>"
+            + "</soapenv:Envelope>";
+
+    private final SSLSocketFactory factory;
+    private final List<ServerSocketChannel> channels = new ArrayList<>();
+    private final ExecutorService exec = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "stub-sdk");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final Map<String, String> vms = new ConcurrentHashMap<>();
+    private Selector selector;
+    private volatile boolean closed;
+    private int latencyMs;
+    private double failureRate;
+    private int payloadSize;
+    private boolean connectionClose;
+    private boolean openEnded;
+    private String hit;
+
+    public StubSdkServer() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        char[] password = "password".toCharArray();
+        try (InputStream stream = getClass().getResourceAsStream("/stub-sdk.p12")) {
+            keyStore.load(stream, password);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), null, null);
+        factory = context.getSocketFactory();
+    }
+
+    /**
+     * @param latencyMs the delay before every response
+     * @return this server
+     */
+    public StubSdkServer latency(int latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * @param failureRate the probability of dropping the connection instead of answering a request, except on the
+     *                    hosts which have a VM so that the result of a search stays deterministic
+     * @return this server
+     */
+    public StubSdkServer failureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * @param payloadSize the number of padding bytes before the result of every search, to emulate large responses
+     * @return this server
+     */
+    public StubSdkServer payloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+        return this;
+    }
+
+    /**
+     * @param connectionClose whether to answer with {@code Connection: close} and close the connection after every
+     *                        response
+     * @return this server
+     */
+    public StubSdkServer connectionClose(boolean connectionClose) {
+        this.connectionClose = connectionClose;
+        return this;
+    }
+
+    /**
+     * @param openEnded whether to answer without {@code Content-Length}, delimiting the body by closing the
+     *                  connection
+     * @return this server
+     */
+    public StubSdkServer openEnded(boolean openEnded) {
+        this.openEnded = openEnded;
+        return this;
+    }
+
+    /**
+     * @param hit the IP address of the host which has the VM
+     * @return this server
+     */
+    public StubSdkServer hit(String hit) {
+        this.hit = hit;
+        return this;
+    }
+
+    /**
+     * Places a VM on a host, which then finds it by DNS name or IP address in addition to the VMs of the hit host.
+     * @param name the DNS name or IP address of the VM
+     * @param host the IP address of the host which has the VM
+     * @return this server
+     */
+    public StubSdkServer vm(String name, String host) {
+        vms.put(name, host);
+        return this;
+    }
+
+    /**
+     * Listens on every address of the range.
+     * @param hosts the loopback addresses to listen on, e.g. {@code 127.0.0.0/24}
+     * @param port the port, or 0 to pick a free one
+     * @return the port
+     * @throws IOException if an address cannot be bound
+     */
+    public int start(CidrRange hosts, int port) throws IOException {
+        selector = Selector.open();
+        for (PrimitiveIterator.OfInt it = hosts.iterator(); it.hasNext(); ) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(CidrRange.toInetAddress(it.nextInt()), port), 1024);
+            port = channel.socket().getLocalPort();
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+            channels.add(channel);
+        }
+        Thread acceptor = new Thread(this::accept, "stub-sdk-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return port;
+    }
+
+    private void accept() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+                    if (channel != null) {
+                        connections.increment();
+                        channel.configureBlocking(true);
+                        exec.execute(() -> serve(channel.socket()));
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Stub SDK server failed: " + e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        String host = socket.getLocalAddress().getHostAddress();
+        try (SSLSocket ssl = (SSLSocket) factory.createSocket(socket, host, socket.getPort(), true)) {
+            ssl.setUseClientMode(false);
+            InputStream in = new BufferedInputStream(ssl.getInputStream());
+            OutputStream out = ssl.getOutputStream();
+            while (!closed) {
+                String header = readHeader(in);
+                if (header == null) {
+                    return;
+                }
+                byte[] body = readBody(in, header);
+                requests.increment();
+                boolean spared = host.equals(hit) || vms.containsValue(host);
+                if (!spared && failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                    return;
+                }
+                if (latencyMs > 0) {
+                    Thread.sleep(latencyMs);
+                }
+                respond(out, host, header, new String(body, StandardCharsets.UTF_8));
+                if (connectionClose || openEnded) {
+                    // closing the SSL socket sends close_notify
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client went away
+        }
+    }
+
+    private static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int last = 0;
+        int b;
+        while ((b = in.read()) >= 0) {
+            header.write(b);
+            last = last << 8 | b;
+            if (last == 0x0D0A0D0A) {
+                return new String(header.toByteArray(), StandardCharsets.ISO_8859_1);
+            }
+        }
+        if (header.size() == 0) {
+            return null;
+        }
+        throw new EOFException("Incomplete request header");
+    }
+
+    private static byte[] readBody(InputStream in, String header) throws IOException {
+        String length = headerValue(header, "Content-Length");
+        byte[] body = new byte[length == null ? 0 : Integer.parseInt(length)];
+        int n = 0;
+        while (n < body.length) {
+            int read = in.read(body, n, body.length - n);
+            if (read < 0) {
+                throw new EOFException("Incomplete request body");
+            }
+            n += read;
+        }
+        return body;
+    }
+
+    private static String headerValue(String header, String name) {
+        for (String line : header.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String elementText(String xml, String element) {
+        int start = xml.indexOf("<" + element + ">");
+        int end = xml.indexOf("</" + element + ">");
+        return start < 0 || end < 0 ? null : xml.substring(start + element.length() + 2, end);
+    }
+
+    private void respond(OutputStream out, String host, String header, String request) throws IOException {
+        int status = 200;
+        String cookie = null;
+        String body;
+        if (request.contains("<Login")) {
+            cookie = "vmware_soap_session=\"" + UUID.randomUUID() + "\"; Path=/; HttpOnly; Secure;";
+            body = "<LoginResponse xmlns=\"urn:vim25\"><returnval><key>" + UUID.randomUUID() + "</key>"
+                    + "</returnval></LoginResponse>";
+        } else if (headerValue(header, "Cookie") == null) {
+            status = 500;
+            body = "<soapenv:Fault><faultcode>ServerFaultCode</faultcode><faultstring>The session is not "
+                    + "authenticated.</faultstring></soapenv:Fault>";
+        } else {
+            boolean dns = request.contains("<FindAllByDnsName");
+            String element = dns ? "FindAllByDnsNameResponse" : "FindAllByIpResponse";
+            String name = elementText(request, dns ? "dnsName" : "ip");
+            boolean found = host.equals(hit) || name != null && host.equals(vms.get(name));
+            String result = found ? "<returnval type=\"VirtualMachine\">vm-42</returnval>" : "";
+            body = "<" + element + " xmlns=\"urn:vim25\">" + result + "</" + element + ">";
+        }
+        String padding = "";
+        if (payloadSize > 0 && status == 200 && cookie == null) {
+            char[] chars = new char[payloadSize];
+            Arrays.fill(chars, ' ');
+            padding = "<!--" + new String(chars) + "-->";
+        }
+        byte[] bytes = String.format(ENVELOPE, padding, body).getBytes(StandardCharsets.UTF_8);
+        StringBuilder response = new StringBuilder()
+                .append("HTTP/1.1 ").append(status).append(status == 200 ? " OK" : " Internal Server Error")
+                .append("\r\nContent-Type: text/xml; charset=utf-8");
+        if (!openEnded) {
+            response.append("\r\nContent-Length: ").append(bytes.length);
+        }
+        if (connectionClose) {
+            response.append("\r\nConnection: close");
+        }
+        if (cookie != null) {
+            response.append("\r\nSet-Cookie: ").append(cookie);
+        }
+        response.append("\r\n\r\n");
+        out.write(response.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * @return the number of accepted TCP connections
+     */
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * @return the number of received requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        exec.shutdownNow();
+        if (selector != null) {
+            selector.close();
+        }
+        for (ServerSocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+}
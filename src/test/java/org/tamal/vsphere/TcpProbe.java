@@ -0,0 +1,166 @@
+package org.tamal.vsphere;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.PrimitiveIterator;
+
+/**
+ * Fast first phase of a sweep: non-blocking TCP connects to every host of a range with a short timeout, so that only
+ * the hosts which accept a connection go on to the TLS login. Thousands of connects are in flight on one thread.
+ */
+public class TcpProbe {
+
+    private int port = 443;
+    private int timeoutMs = 1_000;
+    private int maxInFlight = 4_096;
+    private volatile boolean stopped;
+    private volatile Selector selector;
+
+    /**
+     * Receives the result of every probed host, on the probing thread.
+     */
+    public interface Listener {
+
+        void open(int address);
+
+        void failed(int address, IOException e);
+
+    }
+
+    private static class Probe {
+
+        private final int address;
+        private final SocketChannel channel;
+        private final long deadline;
+
+        Probe(int address, SocketChannel channel, long deadline) {
+            this.address = address;
+            this.channel = channel;
+            this.deadline = deadline;
+        }
+    }
+
+    public TcpProbe port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public TcpProbe timeout(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    public TcpProbe maxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Probes every host of the range, blocking until all are probed or {@link #stop()} is called.
+     * @param range the hosts to probe
+     * @param listener receives the open and the failed hosts
+     * @throws IOException if the selector cannot be opened
+     */
+    public void probe(CidrRange range, Listener listener) throws IOException {
+        probe(range.iterator(), listener);
+    }
+
+    /**
+     * Probes every host, blocking until all are probed or {@link #stop()} is called.
+     * @param ips the hosts to probe, pulled as the probes in flight complete
+     * @param listener receives the open and the failed hosts
+     * @throws IOException if the selector cannot be opened
+     */
+    public void probe(PrimitiveIterator.OfInt ips, Listener listener) throws IOException {
+        long timeout = timeoutMs * 1_000_000L;
+        // all the probes have the same timeout, so they expire in the order they were started
+        Deque<Probe> probes = new ArrayDeque<>();
+        try (Selector selector = Selector.open()) {
+            synchronized (this) {
+                this.selector = selector;
+                stopped = false;
+            }
+            while (!stopped && (ips.hasNext() || !selector.keys().isEmpty())) {
+                while (ips.hasNext() && selector.keys().size() < maxInFlight && !stopped) {
+                    int address = ips.nextInt();
+                    SocketChannel channel = null;
+                    try {
+                        channel = SocketChannel.open();
+                        channel.configureBlocking(false);
+                        if (channel.connect(new InetSocketAddress(CidrRange.toInetAddress(address), port))) {
+                            channel.close();
+                            listener.open(address);
+                        } else {
+                            Probe probe = new Probe(address, channel, System.nanoTime() + timeout);
+                            channel.register(selector, SelectionKey.OP_CONNECT, probe);
+                            probes.add(probe);
+                        }
+                    } catch (IOException e) {
+                        close(channel);
+                        listener.failed(address, e);
+                    }
+                }
+                selector.select(Math.max(1, Math.min(timeoutMs, 100)));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Probe probe = (Probe) key.attachment();
+                    key.cancel();
+                    try {
+                        probe.channel.finishConnect();
+                        listener.open(probe.address);
+                    } catch (IOException e) {
+                        listener.failed(probe.address, e);
+                    } finally {
+                        close(probe.channel);
+                    }
+                }
+                selector.selectedKeys().clear();
+                long now = System.nanoTime();
+                while (!probes.isEmpty() && (!probes.peek().channel.isOpen() || now - probes.peek().deadline > 0)) {
+                    Probe probe = probes.poll();
+                    if (probe.channel.isOpen()) {
+                        probe.channel.keyFor(selector).cancel();
+                        close(probe.channel);
+                        listener.failed(probe.address, new SocketTimeoutException("connect timed out"));
+                    }
+                }
+                // the cancelled keys leave the key set on the next select
+                selector.selectNow();
+            }
+            for (Probe probe : probes) {
+                close(probe.channel);
+            }
+        } finally {
+            synchronized (this) {
+                this.selector = null;
+            }
+        }
+    }
+
+    /**
+     * Stops a running probe; the hosts not probed yet are not reported. Without a running probe it has no effect, so
+     * the probe can be reused.
+     */
+    public synchronized void stop() {
+        if (selector != null) {
+            stopped = true;
+            selector.wakeup();
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignored, the probe is over
+            }
+        }
+    }
+
+}
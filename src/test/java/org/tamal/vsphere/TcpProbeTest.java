@@ -0,0 +1,94 @@
+package org.tamal.vsphere;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TcpProbeTest {
+
+    @Test
+    public void testProbe() throws IOException {
+        CidrRange range = CidrRange.parse("127.1.1.0/28");
+        List<ServerSocketChannel> servers = new ArrayList<>();
+        Set<Integer> listening = new TreeSet<>();
+        int port = 0;
+        try {
+            for (int address = range.getFirst(); address <= range.getLast(); address += 3) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(CidrRange.toInetAddress(address), port));
+                port = server.socket().getLocalPort();
+                servers.add(server);
+                listening.add(address);
+            }
+            Set<Integer> open = new TreeSet<>();
+            Set<Integer> failed = new TreeSet<>();
+            new TcpProbe().port(port).timeout(500).maxInFlight(4).probe(range, new TcpProbe.Listener() {
+                @Override
+                public void open(int address) {
+                    open.add(address);
+                }
+
+                @Override
+                public void failed(int address, IOException e) {
+                    assertTrue(e instanceof ConnectException, e.toString());
+                    failed.add(address);
+                }
+            });
+            assertEquals(open, listening);
+            assertEquals(open.size() + failed.size(), range.count());
+        } finally {
+            for (ServerSocketChannel server : servers) {
+                server.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStop() throws IOException {
+        TcpProbe probe = new TcpProbe().port(1).maxInFlight(1);
+        List<Integer> probed = new ArrayList<>();
+        probe.probe(CidrRange.parse("127.1.2.0/24"), new TcpProbe.Listener() {
+            @Override
+            public void open(int address) {
+                probed.add(address);
+            }
+
+            @Override
+            public void failed(int address, IOException e) {
+                probed.add(address);
+                if (probed.size() == 10) {
+                    probe.stop();
+                }
+            }
+        });
+        assertEquals(probed.size(), 10);
+        // a stop after the probe has finished, like VmSearch does when a search completes, does not affect later runs
+        probe.stop();
+        for (int run = 0; run < 2; run++) {
+            probed.clear();
+            probe.probe(CidrRange.parse("127.1.2.0/29"), new TcpProbe.Listener() {
+                @Override
+                public void open(int address) {
+                    probed.add(address);
+                }
+
+                @Override
+                public void failed(int address, IOException e) {
+                    probed.add(address);
+                }
+            });
+            assertEquals(probed.size(), 8);
+        }
+    }
+
+}
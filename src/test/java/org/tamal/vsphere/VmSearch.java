@@ -0,0 +1,407 @@
+package org.tamal.vsphere;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking sweep which searches a VM across the hosts of a range, one {@link SdkSession} per host. The first host
+ * which finds the VM completes the future; all the other in-flight connections are then closed so that the blocked
+ * tasks fail fast instead of running until their timeout.
+ */
+public class VmSearch {
+
+    private final SSLSocketFactory factory;
+    private final HostnameVerifier verifier;
+    private final int timeoutMs;
+    private final SoapTemplate.Payload login;
+    private final SoapTemplate.Payload findDns;
+    private final SoapTemplate.Payload findIp;
+    private final Map<String, Set<String>> status = new ConcurrentHashMap<>();
+    private final Set<SdkSession> sessions = ConcurrentHashMap.newKeySet();
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private AdaptiveLimiter limiter;
+    private ExecutorService exec;
+    private int port = 443;
+    private boolean virtualThreads;
+    private ProgressJournal journal;
+    private long journalTtl;
+    private NegativeCache negativeCache;
+    private TcpProbe probe;
+
+    public VmSearch(SSLSocketFactory factory, HostnameVerifier verifier, int timeoutMs, SoapTemplate.Payload login,
+            SoapTemplate.Payload findDns, SoapTemplate.Payload findIp) {
+        this.factory = factory;
+        this.verifier = verifier;
+        this.timeoutMs = timeoutMs;
+        this.login = login;
+        this.findDns = findDns;
+        this.findIp = findIp;
+    }
+
+    public VmSearch port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Runs every host on its own virtual thread, so that tens of thousands of blocking sessions can be in flight.
+     * Falls back to the platform thread pool if the JVM has no virtual threads (before Java 21).
+     * @param virtualThreads whether to use virtual threads
+     * @return this search
+     */
+    public VmSearch virtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Journals the outcome of every host, and skips the hosts which the journal already has: those scanned to the
+     * end, and those which failed within the TTL. A VM found by a previous run completes the search at once.
+     * @param journal the journal of the interrupted sweep, or a new one
+     * @param ttlMillis how long a failed host is skipped
+     * @return this search
+     */
+    public VmSearch journal(ProgressJournal journal, long ttlMillis) {
+        this.journal = journal;
+        this.journalTtl = ttlMillis;
+        return this;
+    }
+
+    /**
+     * Skips the hosts which the cache knows to fail, and caches the hosts which fail in this search.
+     * @param negativeCache the cache, usually loaded from the previous runs
+     * @return this search
+     */
+    public VmSearch negativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+        return this;
+    }
+
+    /**
+     * Probes the hosts with a plain TCP connect first, so that only the hosts which accept a connection are logged
+     * in to, and the dead hosts fail within the short probe timeout instead of the session timeout.
+     * @param probe the probe, on the same port as this search
+     * @return this search
+     */
+    public VmSearch probe(TcpProbe probe) {
+        this.probe = probe;
+        return this;
+    }
+
+    public VmSearch limiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+
+    /**
+     * Starts the search in the background. Cancelling the returned future aborts the search.
+     * @param range the hosts to search
+     * @return the future IP address of the host which has the VM, or {@code null} if no host has it
+     */
+    public CompletableFuture<String> search(CidrRange range) {
+        exec = newExecutor();
+        if (limiter == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            int max = isVirtual() ? 32_768 : processors * 256;
+            limiter = new AdaptiveLimiter(processors * 16, processors, max);
+        }
+        result.whenComplete((ip, e) -> abort());
+        Thread dispatcher = new Thread(() -> dispatch(range), "vm-search");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        return result;
+    }
+
+    private ExecutorService newExecutor() {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                virtualThreads = false;
+            }
+        }
+        return Executors.newCachedThreadPool(task -> {
+            // aborted tasks still blocked in connect must not keep the JVM alive
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void dispatch(CidrRange range) {
+        try {
+            PrimitiveIterator.OfInt ips = unknown(range.iterator());
+            if (probe != null) {
+                ips = probed(ips);
+            }
+            while (ips.hasNext() && !result.isDone()) {
+                int address = ips.nextInt();
+                limiter.acquire();
+                try {
+                    exec.submit(() -> scan(address));
+                } catch (RejectedExecutionException e) {
+                    // the search is complete and the executor is shut down
+                    limiter.cancel();
+                }
+            }
+            exec.shutdown();
+            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            result.complete(null);
+        } catch (InterruptedException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the hosts which neither the journal nor the negative cache already know
+     */
+    private PrimitiveIterator.OfInt unknown(PrimitiveIterator.OfInt ips) {
+        return new PrimitiveIterator.OfInt() {
+            private int next;
+            private boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                while (!ready && ips.hasNext() && !result.isDone()) {
+                    next = ips.nextInt();
+                    ready = !skip(next);
+                }
+                return ready;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return next;
+            }
+        };
+    }
+
+    private boolean skip(int address) {
+        if (journal != null && resume(address)) {
+            return true;
+        }
+        if (negativeCache != null && negativeCache.contains(address)) {
+            status.computeIfAbsent(NegativeCache.SKIPPED, k -> new ConcurrentSkipListSet<>())
+                    .add(CidrRange.toString(address));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Probes the hosts on a background thread.
+     * @return the hosts which accepted a connection, as soon as they do
+     */
+    private PrimitiveIterator.OfInt probed(PrimitiveIterator.OfInt ips) {
+        BlockingQueue<Integer> open = new LinkedBlockingQueue<>();
+        Thread prober = new Thread(() -> {
+            try {
+                probe.probe(ips, new TcpProbe.Listener() {
+                    @Override
+                    public void open(int address) {
+                        open.add(address);
+                    }
+
+                    @Override
+                    public void failed(int address, IOException e) {
+                        metrics.scanned();
+                        // a host may just miss the short probe timeout under load, that is no reason to skip it for
+                        // the TTL of a host which missed the session timeout
+                        VmSearch.this.failed(address, CidrRange.toString(address), e,
+                                !(e instanceof SocketTimeoutException));
+                    }
+                });
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        }, "vm-search-probe");
+        prober.setDaemon(true);
+        prober.start();
+        return new PrimitiveIterator.OfInt() {
+            private Integer next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null && (prober.isAlive() || !open.isEmpty()) && !result.isDone()) {
+                        next = open.poll(100, TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    result.completeExceptionally(e);
+                }
+                return next != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int address = next;
+                next = null;
+                return address;
+            }
+        };
+    }
+
+    private boolean resume(int address) {
+        if (!journal.isDone(address, journalTtl)) {
+            return false;
+        }
+        String ip = CidrRange.toString(address);
+        String outcome = journal.get(address).getOutcome();
+        if (SdkScanner.FOUND.equals(outcome)) {
+            result.complete(ip);
+        } else {
+            status.computeIfAbsent(outcome, k -> new ConcurrentSkipListSet<>()).add(ip);
+        }
+        return true;
+    }
+
+    private void scan(int address) {
+        String ip = CidrRange.toString(address);
+        metrics.scanned();
+        long begin = System.nanoTime();
+        long latency = -1;
+        boolean timedOut = false;
+        boolean failed = false;
+        SdkSession session = null;
+        try {
+            session = new SdkSession(new URL("https", ip, port, "/sdk/"), factory, verifier, timeoutMs)
+                    .metrics(metrics);
+            sessions.add(session);
+            if (result.isDone()) {
+                return;
+            }
+            boolean loggedIn = session.login(login);
+            latency = System.nanoTime() - begin;
+            if (!loggedIn) {
+                record(SdkScanner.LOGIN_FAILED, address, ip);
+                return;
+            }
+            long time = System.nanoTime();
+            boolean found = session.find(findDns, "FindAllByDnsNameResponse");
+            metrics.record(ScanMetrics.Phase.FIND_BY_DNS, System.nanoTime() - time);
+            if (found) {
+                found(address, ip);
+                return;
+            }
+            record(SdkScanner.NOT_FOUND_BY_DNS, address, ip);
+            time = System.nanoTime();
+            found = session.find(findIp, "FindAllByIpResponse");
+            metrics.record(ScanMetrics.Phase.FIND_BY_IP, System.nanoTime() - time);
+            if (found) {
+                found(address, ip);
+                return;
+            }
+            record(SdkScanner.NOT_FOUND_BY_IP, address, ip);
+        } catch (IOException e) {
+            timedOut = e instanceof SocketTimeoutException;
+            failed = !timedOut;
+            failed(address, ip, e, true);
+        } finally {
+            if (session != null) {
+                sessions.remove(session);
+                session.close();
+            }
+            // the latency of connect, handshake and login drives the limit, timeouts signal congestion, but hosts
+            // which refuse or cannot be reached fail fast and say nothing about the latency
+            if (latency >= 0) {
+                limiter.release(latency, false);
+            } else if (timedOut) {
+                limiter.release(System.nanoTime() - begin, true);
+            } else if (failed) {
+                limiter.fail();
+            } else {
+                limiter.cancel();
+            }
+        }
+    }
+
+    private void failed(int address, String ip, IOException e, boolean cache) {
+        NegativeCache.Failure failure = NegativeCache.Failure.of(e);
+        if (cache && negativeCache != null && failure != null && !result.isDone()) {
+            negativeCache.add(address, failure);
+        }
+        record(e.getMessage(), address, ip);
+    }
+
+    private void record(String outcome, int address, String ip) {
+        // failures caused by aborting the connections are not real outcomes
+        if (!result.isDone()) {
+            metrics.outcome(String.valueOf(outcome));
+            status.computeIfAbsent(String.valueOf(outcome), k -> new ConcurrentSkipListSet<>()).add(ip);
+            checkpoint(address, outcome);
+        }
+    }
+
+    private void found(int address, String ip) {
+        if (!result.isDone()) {
+            metrics.outcome(SdkScanner.FOUND);
+            checkpoint(address, SdkScanner.FOUND);
+            result.complete(ip);
+        }
+    }
+
+    private void checkpoint(int address, String outcome) {
+        if (journal != null) {
+            try {
+                journal.append(address, outcome);
+            } catch (IOException e) {
+                // a sweep which cannot be resumed is not worth continuing
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void abort() {
+        exec.shutdownNow();
+        if (probe != null) {
+            probe.stop();
+        }
+        for (SdkSession session : sessions) {
+            session.close();
+        }
+    }
+
+    public Map<String, Set<String>> getStatus() {
+        return status;
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return whether the hosts are scanned on virtual threads, only known once the search has started
+     */
+    public boolean isVirtual() {
+        return virtualThreads;
+    }
+
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+}